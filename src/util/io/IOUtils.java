@@ -1,31 +1,46 @@
 package util.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 public class IOUtils { //todo:review
 
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
     public static byte[] readInputStreamToBytes(final InputStream in) throws IOException {
         return readInputStreamToBytes(in, 0);
     }
 
+    /**
+     * A stream that knows how much is left, as those of vfs files do, is read straight into an array of that size;
+     * others into one that grows as needed.
+     */
     public static byte[] readInputStreamToBytes(final InputStream in, final int noMoreThanThisBytes) throws IOException {
         final boolean unlimited = 0 == noMoreThanThisBytes;
+        final int expected = unlimited ? in.available() : Math.min(in.available(), noMoreThanThisBytes);
 
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(65536, in.available()));
-
-        byte[] buf = new byte[65536];
-        int n;
-        int remaining = noMoreThanThisBytes;
-        while (0 < (n = in.read(
-                buf, 0,
-                unlimited ? buf.length : Math.min(remaining, buf.length)))) {
-            bos.write(buf, 0, n);
-            remaining -= n;
+        final int initial = expected > 0 ? expected : DEFAULT_BUFFER_SIZE;
+        byte[] out = new byte[unlimited ? initial : Math.min(initial, noMoreThanThisBytes)];
+        int size = 0;
+        while (unlimited || size < noMoreThanThisBytes) {
+            if (size == out.length) {
+                //full, which is where a stream of the expected size ends
+                final int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                final int grown = Math.max(out.length * 2, DEFAULT_BUFFER_SIZE);
+                out = Arrays.copyOf(out, unlimited ? grown : Math.min(grown, noMoreThanThisBytes));
+                out[size++] = (byte) b;
+                continue;
+            }
+            final int n = in.read(out, size, out.length - size);
+            if (n <= 0) {
+                break;
+            }
+            size += n;
         }
-
-        bos.close();
-        return bos.toByteArray();
+        return size == out.length ? out : Arrays.copyOf(out, size);
     }
 }
@@ -6,6 +6,7 @@ import vfs.exception.VFSException;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 public interface VFile {
 
@@ -21,8 +22,27 @@ public interface VFile {
 
     Iterable<VFile> list() throws VFSException;
 
+    /**
+     * One page of children: up to limit of them, starting right after the one named startAfter,
+     * or with the first one if it is null. Pass the name of the last child of a page to get the next page.
+     * Names are unique within a dir, so that name tells where the page ended.
+     *
+     * @throws IllegalArgumentException if limit is negative
+     */
+    List<VFile> list(@Nullable final String startAfter, final int limit) throws VFSException;
+
     @Nullable VFile child(@NotNull final String name) throws VFSException;
 
+    /**
+     * @return bytes in the file as of the last close of a stream writing it, 0 for a dir; known without reading the data
+     */
+    long length() throws VFSException;
+
+    /**
+     * @return when the file was last written, or created if it never was, in milliseconds since the epoch
+     */
+    long lastModified() throws VFSException;
+
     InputStream openFileInput() throws VFSException;
 
     OutputStream openFileOutput() throws VFSException;
@@ -4,21 +4,105 @@ public class VFileSystemConfig {
 
     private static final int MIN_BLOCK_SIZE = 64;
 
+    public static final long DEFAULT_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * How a file-backed vfs talks to its container file.
+     */
+    public static enum Storage {
+        /** seek + read/write on a RandomAccessFile */
+        RANDOM_ACCESS_FILE,
+        /** container mapped into memory in fixed-size segments */
+        MEMORY_MAPPED,
+        /** positional reads and writes on a FileChannel, safe to share between threads */
+        FILE_CHANNEL
+    }
+
+    /**
+     * How free blocks are tracked and handed out.
+     */
+    public static enum Allocator {
+        /** bitmap with a cursor at the lowest free block */
+        SIMPLE,
+        /** free extents, best fit for runs and next-to hints honored */
+        EXTENT,
+        /** bitmap with summary levels, the cost of finding a free block does not grow as the container fills */
+        HIERARCHICAL,
+        /** bitmap in roaring-style chunks, memory follows the allocation pattern rather than the container size */
+        COMPRESSED,
+        /** lock-free bitmap split into groups, each writer thread allocates from its own group */
+        CONCURRENT
+    }
+
+    /**
+     * How nodes and dir entries are encoded on disk. Picked when a vfs is created, opening goes by the container.
+     */
+    public static enum Metadata {
+        /** protobuf messages */
+        PROTOBUF,
+        /** fields at fixed offsets and length-prefixed utf-8 names, looked at in place without being decoded */
+        FIXED
+    }
+
     private final int blockSize;
     private final boolean doCompress;
     private final boolean doChecksum;
     private final char separatorChar;
     private final String separator;
+    private final Storage storage;
+    private final long cacheSize;
+    private final Allocator allocator;
+    private final Metadata metadata;
 
     public VFileSystemConfig(final int blockSize, final boolean doCompress, final boolean doChecksum, final char separatorChar) {
+        this(blockSize, doCompress, doChecksum, separatorChar, Storage.RANDOM_ACCESS_FILE, DEFAULT_CACHE_SIZE, Allocator.SIMPLE, Metadata.PROTOBUF);
+    }
+
+    private VFileSystemConfig(final int blockSize, final boolean doCompress, final boolean doChecksum, final char separatorChar,
+                              final Storage storage, final long cacheSize, final Allocator allocator, final Metadata metadata) {
         if (blockSize < MIN_BLOCK_SIZE) {
             throw new RuntimeException("block size too small. min allowed block size is " + MIN_BLOCK_SIZE);
         }
+        if (storage == null) {
+            throw new IllegalArgumentException("storage is null");
+        }
+        if (allocator == null) {
+            throw new IllegalArgumentException("allocator is null");
+        }
+        if (metadata == null) {
+            throw new IllegalArgumentException("metadata is null");
+        }
+        if (cacheSize != 0 && cacheSize < blockSize) {
+            throw new IllegalArgumentException("cache of " + cacheSize + " bytes cannot hold a single block, use 0 to turn it off");
+        }
         this.blockSize = blockSize;
         this.doCompress = doCompress;
         this.doChecksum = doChecksum;
         this.separatorChar = separatorChar;
         this.separator = String.valueOf(separatorChar);
+        this.storage = storage;
+        this.cacheSize = cacheSize;
+        this.allocator = allocator;
+        this.metadata = metadata;
+    }
+
+    public VFileSystemConfig withStorage(final Storage storage) {
+        return new VFileSystemConfig(blockSize, doCompress, doChecksum, separatorChar, storage, cacheSize, allocator, metadata);
+    }
+
+    /**
+     * @param cacheSize bytes of blocks a file-backed vfs keeps in memory, 0 turns the cache off
+     */
+    public VFileSystemConfig withCacheSize(final long cacheSize) {
+        return new VFileSystemConfig(blockSize, doCompress, doChecksum, separatorChar, storage, cacheSize, allocator, metadata);
+    }
+
+    public VFileSystemConfig withAllocator(final Allocator allocator) {
+        return new VFileSystemConfig(blockSize, doCompress, doChecksum, separatorChar, storage, cacheSize, allocator, metadata);
+    }
+
+    public VFileSystemConfig withMetadata(final Metadata metadata) {
+        return new VFileSystemConfig(blockSize, doCompress, doChecksum, separatorChar, storage, cacheSize, allocator, metadata);
     }
 
     public int getBlockSize() {
@@ -40,4 +124,20 @@ public class VFileSystemConfig {
     public String getSeparator() {
         return separator;
     }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
 }
@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 class Block {
@@ -13,7 +14,7 @@ class Block {
 
     private final int no;
     private final int next;
-    private final byte[] data;
+    private final ByteBuffer data;
 
     private static final int WORD_SIZE = 8;
 
@@ -22,9 +23,13 @@ class Block {
     }
 
     Block(final int no, final int next, final byte[] data, final int dataLength) {
+        this(no, next, ByteBuffer.wrap(Arrays.copyOf(data, dataLength)));
+    }
+
+    private Block(final int no, final int next, final ByteBuffer data) {
         this.no = no;
         this.next = next;
-        this.data = Arrays.copyOf(data, dataLength);
+        this.data = data;
     }
 
     public static int calcUsefulPayload(final int blockSize) {
@@ -34,36 +39,59 @@ class Block {
     public static Block decode(final InputStream input, final int blockSize) {
         try {
             final byte[] data = new byte[blockSize];
-            for (int i = 0; i < blockSize; i++) {
-                data[i] = (byte) input.read();
-            }
-            final int no = readInt(data, 0);
-            log.debug("decoded no {}", no);
-
-            final int length = readInt(data, blockSize - WORD_SIZE * 2);
-            log.debug("decoded length {}", length);
-            if (length > blockSize) {
-                throw new AssertionError("read length of " + length + " for blocksize of " + blockSize);
+            int read = 0;
+            while (read < blockSize) {
+                final int n = input.read(data, read, blockSize - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
             }
+            return decode(ByteBuffer.wrap(data), blockSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            final int next = readInt(data, blockSize - WORD_SIZE);
-            log.debug("decoded next {}", next);
+    /**
+     * Decodes the block lying between position and position + blockSize of src without copying its payload:
+     * the returned block is a flyweight over src and is only valid for as long as src content is.
+     */
+    public static Block decode(final ByteBuffer src, final int blockSize) {
+        final int no = noOf(src);
+        log.debug("decoded no {}", no);
+        final int next = nextOf(src, blockSize);
+        log.debug("decoded next {}", next);
+        final ByteBuffer payload = payloadOf(src.duplicate(), blockSize).slice();
+        return new Block(no, next, payload.asReadOnlyBuffer());
+    }
 
-            final byte[] actualData = new byte[length];
-            System.arraycopy(data, WORD_SIZE, actualData, 0, length);
+    static int noOf(final ByteBuffer block) {
+        return block.getInt(block.position());
+    }
 
-            return new Block(no, next, actualData);
+    static int nextOf(final ByteBuffer block, final int blockSize) {
+        return block.getInt(block.position() + blockSize - WORD_SIZE);
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    static int lengthOf(final ByteBuffer block, final int blockSize) {
+        final int length = block.getInt(block.position() + blockSize - WORD_SIZE * 2);
+        log.debug("decoded length {}", length);
+        if (length < 0 || length > calcUsefulPayload(blockSize)) {
+            throw new AssertionError("read length of " + length + " for blocksize of " + blockSize);
         }
+        return length;
     }
 
-    private static int readInt(final byte[] bytes, final int start) {
-        return ((bytes[start] & 0xff) << 24)
-                + ((bytes[start + 1] & 0xff) << 16)
-                + ((bytes[start + 2] & 0xff) << 8)
-                + (bytes[start + 3] & 0xff);
+    /**
+     * narrows the block buffer down to its payload, in place
+     */
+    static ByteBuffer payloadOf(final ByteBuffer block, final int blockSize) {
+        final int start = block.position() + WORD_SIZE;
+        final int length = lengthOf(block, blockSize);
+        block.limit(start + length);
+        block.position(start);
+        return block;
     }
 
     private static void writeInt(final byte[] bytes, final int pos, final int value) {
@@ -74,14 +102,34 @@ class Block {
 
     }
 
+    static int payloadOffset() {
+        return WORD_SIZE;
+    }
+
+    /**
+     * Frames a block in place: out holds the block at offset at, with length bytes of payload already at
+     * at + {@link #payloadOffset()}. Saves building a Block and copying the payload around when the writer owns
+     * the block buffer anyway.
+     */
+    static void encodeInPlace(final byte[] out, final int at, final int no, final int next, final int length, final int blockSize) {
+        if (length > calcUsefulPayload(blockSize)) {
+            throw new IllegalArgumentException("block too small for data. block size is " + blockSize + ", data size is " + length);
+        }
+        writeInt(out, at, no);
+        Arrays.fill(out, at + WORD_SIZE + length, at + blockSize - WORD_SIZE * 2, (byte) 0);
+        writeInt(out, at + blockSize - WORD_SIZE * 2, length);
+        writeInt(out, at + blockSize - WORD_SIZE, next);
+    }
+
     public static void encode(final OutputStream output, final Block b, final int blockSize) {
-        if (blockSize < b.data.length + WORD_SIZE * 3) {
-            throw new IllegalArgumentException("block too small for data. block size is " + blockSize + ", data size is " + b.data.length);
+        final int length = b.data.remaining();
+        if (blockSize < length + WORD_SIZE * 3) {
+            throw new IllegalArgumentException("block too small for data. block size is " + blockSize + ", data size is " + length);
         }
         final byte[] out = new byte[blockSize];
         writeInt(out, 0, b.no);
-        System.arraycopy(b.data, 0, out, WORD_SIZE, b.data.length);
-        writeInt(out, blockSize - WORD_SIZE*2, b.data.length);
+        b.data.duplicate().get(out, WORD_SIZE, length);
+        writeInt(out, blockSize - WORD_SIZE*2, length);
         writeInt(out, blockSize - WORD_SIZE, b.next);
         try {
             output.write(out);
@@ -99,7 +147,7 @@ class Block {
 
         if (next != block.next) return false;
         if (no != block.no) return false;
-        if (!Arrays.equals(data, block.data)) return false;
+        if (!data.equals(block.data)) return false;
 
         return true;
     }
@@ -108,7 +156,7 @@ class Block {
     public int hashCode() { //generated
         int result = no;
         result = 31 * result + next;
-        result = 31 * result + Arrays.hashCode(data);
+        result = 31 * result + data.hashCode();
         return result;
     }
 
@@ -120,8 +168,17 @@ class Block {
         return next;
     }
 
+    /**
+     * bytes of data the block holds, known without copying them
+     */
+    public int getLength() {
+        return data.remaining();
+    }
+
     public byte[] getData() {
-        return Arrays.copyOf(data, data.length);
+        final byte[] out = new byte[data.remaining()];
+        data.duplicate().get(out);
+        return out;
     }
 
     @Override
@@ -129,11 +186,27 @@ class Block {
         return "Block{" +
                 "no=" + no +
                 ", next=" + next +
-                ", data=" + data.length +
+                ", data=" + data.remaining() +
                 '}';
     }
 
     public boolean isClear() {
-        return no == 0 && data.length == 0 && next == 0;
+        return no == 0 && !data.hasRemaining() && next == 0;
+    }
+
+    /**
+     * tells if the encoded block at absolute index at of blocks, read from position blockNum, holds something.
+     * looks at the header and trailer words only. block 0 is always in use.
+     */
+    static boolean isOccupied(final ByteBuffer blocks, final int at, final int blockNum, final int blockSize) {
+        final int no = blocks.getInt(at);
+        if (blockNum == 0 && no == 0) {
+            return true;
+        }
+        if (no != 0 || blocks.getInt(at + blockSize - WORD_SIZE * 2) != 0 || blocks.getInt(at + blockSize - WORD_SIZE) != 0) {
+            assert no == blockNum;
+            return true;
+        }
+        return false;
     }
 }
@@ -2,10 +2,18 @@ package vfs.impl.core;
 
 public interface BlockAllocator {
 
+    /**
+     * allocates num consecutive blocks and returns the first of them
+     */
     int allocAnywhere(final int num);
 
     int allocNextTo(final int blockNo);
 
+    /**
+     * allocates num consecutive blocks, right after blockNo if the allocator can, and returns the first of them
+     */
+    int allocNextTo(final int blockNo, final int num);
+
     void free(final int block);
 
     void free(final int startBlock, final int num);
@@ -0,0 +1,245 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vfs.exception.VFSException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of whole blocks in front of a storage. Writes land in the cache and reach the storage
+ * when the block is evicted, on {@link #flush()} or on {@link #close()}.
+ * Reads and writes spanning several whole blocks (what chain readers and writers produce for sequential data)
+ * go straight through, so bulk data does not wash metadata blocks out of the cache.
+ */
+@ThreadSafe
+public class BlockCache implements ByteSink, ByteSrc {
+    private static final Logger log = LoggerFactory.getLogger(BlockCache.class);
+
+    private static class Entry {
+        final byte[] data;
+        final ByteBuffer buffer;
+        boolean dirty;
+
+        Entry(final byte[] data) {
+            this.data = data;
+            this.buffer = ByteBuffer.wrap(data);
+        }
+    }
+
+    private final ByteSink sink;
+    private final ByteSrc src;
+    private final int blockSize;
+    private final int capacity;
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    private boolean closed;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BlockCache(final ByteSink sink, final ByteSrc src, final int blockSize, final long budgetBytes) {
+        if (budgetBytes < blockSize) {
+            throw new IllegalArgumentException("cache budget " + budgetBytes + " cannot hold a single block of " + blockSize);
+        }
+        this.sink = sink;
+        this.src = src;
+        this.blockSize = blockSize;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, budgetBytes / blockSize);
+        this.entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized byte[] read(final long from, final int length) {
+        final byte[] out = new byte[length];
+        copyOut(from, out, 0, length);
+        return out;
+    }
+
+    @Override
+    public synchronized ByteBuffer read(final long from, final int length, final ByteBuffer dst) {
+        if (from % blockSize == 0 && length > blockSize && length % blockSize == 0 && !anyCached(from, length)) {
+            misses += length / blockSize;
+            return src.read(from, length, dst);
+        }
+        dst.clear();
+        copyOut(from, dst.array(), dst.arrayOffset(), length);
+        dst.limit(length);
+        return dst;
+    }
+
+    private boolean anyCached(final long from, final int length) {
+        final int first = blockOf(from);
+        for (int i = 0; i < length / blockSize; i++) {
+            if (entries.containsKey(first + i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void copyOut(final long from, final byte[] out, final int off, final int len) {
+        int done = 0;
+        while (done < len) {
+            final long pos = from + done;
+            final int inBlock = (int) (pos % blockSize);
+            final int n = Math.min(len - done, blockSize - inBlock);
+            System.arraycopy(get(blockOf(pos)).data, inBlock, out, off + done, n);
+            done += n;
+        }
+    }
+
+    @Override
+    public OutputStream openOut(final long pos) {
+        return new OutputStream() {
+            long at = pos;
+
+            @Override
+            public void write(final int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                writeAt(at, b, off, len);
+                at += len;
+            }
+        };
+    }
+
+    private synchronized void writeAt(final long pos, final byte[] b, final int off, final int len) {
+        if (pos % blockSize == 0 && len > blockSize && len % blockSize == 0) {
+            writeThrough(pos, b, off, len);
+            return;
+        }
+        int done = 0;
+        while (done < len) {
+            final long at = pos + done;
+            final int inBlock = (int) (at % blockSize);
+            final int n = Math.min(len - done, blockSize - inBlock);
+            final Entry entry = n == blockSize ? put(blockOf(at)) : get(blockOf(at));
+            System.arraycopy(b, off + done, entry.data, inBlock, n);
+            entry.dirty = true;
+            done += n;
+        }
+    }
+
+    private void writeThrough(final long pos, final byte[] b, final int off, final int len) {
+        final int first = blockOf(pos);
+        for (int i = 0; i < len / blockSize; i++) {
+            //whole block is overwritten, cached copy is stale even if dirty
+            entries.remove(first + i);
+        }
+        write(pos, b, off, len);
+    }
+
+    private Entry get(final Integer blockNo) {
+        Entry entry = entries.get(blockNo);
+        if (entry != null) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        entry = put(blockNo);
+        final ByteBuffer read = src.read(BlockDevice.offset(blockNo, blockSize), blockSize, entry.buffer);
+        if (read != entry.buffer) {
+            read.get(entry.data, 0, blockSize);
+        }
+        return entry;
+    }
+
+    /**
+     * @return entry for blockNo, a new one has unspecified content
+     */
+    private Entry put(final Integer blockNo) {
+        final Entry existing = entries.get(blockNo);
+        if (existing != null) {
+            return existing;
+        }
+        final Entry entry = entries.size() >= capacity ? evictEldest() : new Entry(new byte[blockSize]);
+        entries.put(blockNo, entry);
+        return entry;
+    }
+
+    /**
+     * @return the evicted entry, clean and ready for reuse
+     */
+    private Entry evictEldest() {
+        final Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+        final Map.Entry<Integer, Entry> eldest = it.next();
+        it.remove();
+        evictions++;
+        if (eldest.getValue().dirty) {
+            writeBack(eldest.getKey(), eldest.getValue());
+        }
+        return eldest.getValue();
+    }
+
+    private void writeBack(final int blockNo, final Entry entry) {
+        write(BlockDevice.offset(blockNo, blockSize), entry.data, 0, blockSize);
+        entry.dirty = false;
+    }
+
+    private void write(final long pos, final byte[] b, final int off, final int len) {
+        final OutputStream out = sink.openOut(pos);
+        try {
+            out.write(b, off, len);
+            out.close();
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+    }
+
+    private int blockOf(final long pos) {
+        return (int) (pos / blockSize);
+    }
+
+    /**
+     * writes all dirty blocks back, then flushes the storage
+     */
+    @Override
+    public synchronized void flush() {
+        int written = 0;
+        for (final Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            if (e.getValue().dirty) {
+                writeBack(e.getKey(), e.getValue());
+                written++;
+            }
+        }
+        log.debug("wrote back {} dirty blocks", written);
+        sink.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        //BlockDevice closes its source and its sink, which are both this
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flush();
+        entries.clear();
+        src.close();
+        if (sink != src) {
+            sink.close();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
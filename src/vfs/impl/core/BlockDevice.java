@@ -4,10 +4,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vfs.exception.VFSException;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class BlockDevice {
     private static final Logger log = LoggerFactory.getLogger(BlockDevice.class);
@@ -15,17 +16,27 @@ public class BlockDevice {
     public static final int MIN_BLOCK_SIZE = 1024;
 
     private static final byte[] ZERO_BYTES = new byte[0];
+    private static final int MAX_READ_AHEAD_BYTES = 256 * 1024;
 
     private final int blockSize;
     private final ByteSink sink;
     private final ByteSrc src;
     private final BlockAllocator alloc;
+    private final int maxReadAhead;
+
+    private final ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(blockSize);
+        }
+    };
 
     public BlockDevice(final int blockSize, final ByteSink sink, final ByteSrc src, final BlockAllocator alloc) {
         this.blockSize = blockSize;
         this.alloc = alloc;
         this.sink = sink;
         this.src = src;
+        this.maxReadAhead = Math.max(1, MAX_READ_AHEAD_BYTES / blockSize);
     }
 
     public DataOutput openWriter(final int blockNo) {
@@ -70,6 +81,48 @@ public class BlockDevice {
         log.debug("touch({}) done", blockNo);
     }
 
+    /**
+     * Overwrites bytes of the chain starting with startBlock in place, pos counting from the start of its data.
+     * Only the blocks holding them are written; the chain keeps its blocks and length.
+     */
+    public void patch(final int startBlock, final long pos, final byte[] bytes) {
+        log.debug("patch({}, {})", startBlock, pos);
+        int blockNo = startBlock;
+        long skip = pos;
+        int done = 0;
+        while (true) {
+            final ByteBuffer block = src.read(offset(blockNo), blockSize, readBuffer.get());
+            final int length = Block.lengthOf(block, blockSize);
+            final int next = Block.nextOf(block, blockSize);
+            if (skip < length) {
+                final int cnt = (int) Math.min(length - skip, bytes.length - done);
+                final OutputStream output = sink.openOut(offset(blockNo) + Block.payloadOffset() + skip);
+                try {
+                    output.write(bytes, done, cnt);
+                } catch (IOException e) {
+                    throw new VFSException(e);
+                } finally {
+                    try {
+                        output.close();
+                    } catch (IOException e) {
+                        throw new VFSException(e);
+                    }
+                }
+                done += cnt;
+                skip = 0;
+            } else {
+                skip -= length;
+            }
+            if (done == bytes.length) {
+                return;
+            }
+            if (next <= 0) {
+                throw new IllegalArgumentException("chain of " + startBlock + " ends before " + (pos + bytes.length));
+            }
+            blockNo = next;
+        }
+    }
+
     Block last(final int startBlock) {
         Block out;
         int next = startBlock;
@@ -83,6 +136,49 @@ public class BlockDevice {
         return out;
     }
 
+    /**
+     * number of runs of consecutive blocks the chain starting with startBlock is made of, 1 for an unfragmented chain
+     */
+    public int countExtents(final int startBlock) {
+        int out = 1;
+        int current = startBlock;
+        int next = readBlock(current).getNext();
+        while (next > 0) {
+            if (next != current + 1) {
+                out++;
+            }
+            current = next;
+            next = readBlock(current).getNext();
+        }
+        return out;
+    }
+
+    /**
+     * number of blocks in the chain starting with startBlock
+     */
+    public int countBlocks(final int startBlock) {
+        int out = 1;
+        int next = readBlock(startBlock).getNext();
+        while (next > 0) {
+            out++;
+            next = readBlock(next).getNext();
+        }
+        return out;
+    }
+
+    /**
+     * bytes of data in the chain starting with startBlock, summed block by block
+     */
+    public long countBytes(final int startBlock) {
+        Block block = readBlock(startBlock);
+        long out = block.getLength();
+        while (block.getNext() > 0) {
+            block = readBlock(block.getNext());
+            out += block.getLength();
+        }
+        return out;
+    }
+
     public int freeStartingWith(final int blockNo) {
         if (alloc.isFree(blockNo)) {
             throw new IllegalArgumentException(blockNo + " is already free");
@@ -130,13 +226,19 @@ public class BlockDevice {
         return readBlock(blockToRead, false);
     }
 
+    /**
+     * the block returned is a flyweight over a per-thread buffer, so it is only good until the next readBlock
+     */
     private Block readBlock(final int blockToRead, final boolean allowEmpty) {
-        final byte[] bytesWithBlock = src.read(offset(blockToRead), blockSize);
-        final Block block = Block.decode(
-                new ByteArrayInputStream(bytesWithBlock),
-                blockSize
-        );
-        return block;
+        final ByteBuffer bytesWithBlock = src.read(offset(blockToRead), blockSize, readBuffer.get());
+        return Block.decode(bytesWithBlock, blockSize);
+    }
+
+    /**
+     * pushes everything written so far down to the storage
+     */
+    public void sync() {
+        sink.flush();
     }
 
     public void close() {
@@ -144,15 +246,33 @@ public class BlockDevice {
         sink.close();
     }
 
+    /**
+     * Writes a chain of blocks. Blocks for the chain are reserved from the allocator in runs of growing length,
+     * and blocks that follow each other on disk are collected in one buffer and written out with a single call.
+     */
     private static class BlockWritingOutputStream extends OutputStream {
 
-        byte[] data;
+        private static final int MAX_BATCH_BYTES = 1024 * 1024;
+        private static final int FIRST_RESERVATION = 2;
+
+        /** encoded blocks not yet written, starting with block batchStartNo; payload is written straight into it */
+        byte[] batch;
+        int batchStartNo;
+        /** offset of the current block in batch */
+        int blockBase;
         int currentPos;
+        int payloadEnd;
         int currentBlockNo;
         private final int blockSize;
+        private final int maxBatchBlocks;
         private final BlockAllocator alloc;
         private final ByteSink sink;
 
+        /** reserved for this chain, but not used yet */
+        private int reservedNext;
+        private int reservedEnd;
+        private int nextReservation = FIRST_RESERVATION;
+
         int totalWritten = 0;
         private final int startBlock;
 
@@ -160,11 +280,13 @@ public class BlockDevice {
             this.blockSize = blockSize;
             this.alloc = alloc;
             this.sink = sink;
-            data = new byte[Block.calcUsefulPayload(blockSize)];
-            if (startData.length > 0) {
-                System.arraycopy(startData, 0, data, 0, startData.length);
-            }
-            currentPos = startData.length;
+            this.maxBatchBlocks = Math.max(1, MAX_BATCH_BYTES / blockSize);
+            batch = new byte[blockSize];
+            batchStartNo = startBlock;
+            blockBase = 0;
+            payloadEnd = Block.payloadOffset() + Block.calcUsefulPayload(blockSize);
+            System.arraycopy(startData, 0, batch, Block.payloadOffset(), startData.length);
+            currentPos = Block.payloadOffset() + startData.length;
             this.startBlock = startBlock;
             currentBlockNo = startBlock;
         }
@@ -175,45 +297,146 @@ public class BlockDevice {
 
         @Override
         public void write(final int b) throws IOException {
-            if (currentPos == data.length) {
-                currentBlockNo = this.doFlush(true);
-                currentPos = 0;
+            if (currentPos == payloadEnd) {
+                nextBlock();
             }
-            data[currentPos++] = (byte) (b & 0xff);
+            batch[currentPos++] = (byte) (b & 0xff);
             totalWritten++;
         }
 
         @Override
-        public void flush() throws IOException {
-            super.flush();
-            this.doFlush(false);
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            int done = 0;
+            while (done < len) {
+                if (currentPos == payloadEnd) {
+                    nextBlock();
+                }
+                final int n = Math.min(len - done, payloadEnd - currentPos);
+                System.arraycopy(b, off + done, batch, currentPos, n);
+                currentPos += n;
+                done += n;
+            }
+            totalWritten += len;
+        }
+
+        private void nextBlock() throws IOException {
+            final int nextBlockNo = takeReserved();
+            log.debug("block #{} is full, next is {}", currentBlockNo, nextBlockNo);
+            Block.encodeInPlace(batch, blockBase, currentBlockNo, nextBlockNo, currentPos - blockBase - Block.payloadOffset(), blockSize);
+            final int blocksInBatch = blockBase / blockSize + 1;
+            if (nextBlockNo == currentBlockNo + 1 && blocksInBatch < maxBatchBlocks) {
+                if (batch.length < (blocksInBatch + 1) * blockSize) {
+                    batch = Arrays.copyOf(batch, Math.min(maxBatchBlocks, blocksInBatch * 2) * blockSize);
+                }
+                blockBase += blockSize;
+            } else {
+                writeBatch(blocksInBatch);
+                batchStartNo = nextBlockNo;
+                blockBase = 0;
+            }
+            currentBlockNo = nextBlockNo;
+            currentPos = blockBase + Block.payloadOffset();
+            payloadEnd = currentPos + Block.calcUsefulPayload(blockSize);
+        }
+
+        private int takeReserved() {
+            if (reservedNext == reservedEnd) {
+                //the chain stays contiguous if the run goes right after the current block, even if that means a shorter run
+                int run = 0;
+                while (run < nextReservation && alloc.isFree(currentBlockNo + 1 + run)) {
+                    run++;
+                }
+                if (run > 0) {
+                    reservedNext = alloc.allocNextTo(currentBlockNo, run);
+                } else {
+                    reservedNext = jump();
+                    run = reservedEnd - reservedNext;
+                }
+                nextReservation = Math.min(nextReservation * 2, maxBatchBlocks);
+                reservedEnd = reservedNext + run;
+                log.debug("reserved {} blocks starting with {}", run, reservedNext);
+            }
+            return reservedNext++;
+        }
+
+        /**
+         * Lands the chain in a run of nextReservation free blocks, as close after the current block as the allocator
+         * finds one, or in a shorter run when there is none that long.
+         *
+         * @return first block of the reservation, which ends at reservedEnd
+         */
+        private int jump() {
+            int run = nextReservation;
+            while (true) {
+                try {
+                    final int start = alloc.allocNextTo(currentBlockNo, run);
+                    reservedEnd = start + run;
+                    return start;
+                } catch (IllegalStateException e) {
+                    if (run == 1) {
+                        throw e;
+                    }
+                    run /= 2;
+                }
+            }
         }
 
-        private int doFlush(final boolean hasNext) throws IOException {
-            final int nextBlockNo = hasNext ? alloc.allocNextTo(currentBlockNo) : 0;
-            log.debug("flushing block #{} with next {}", currentBlockNo, nextBlockNo);
-            final OutputStream out = sink.openOut(offset(currentBlockNo, (long) blockSize));
+        private void writeBatch(final int blockCnt) throws IOException {
+            log.debug("writing {} blocks starting with #{}", blockCnt, batchStartNo);
+            final OutputStream out = sink.openOut(offset(batchStartNo, (long) blockSize));
             try {
-                final Block block = new Block(currentBlockNo, nextBlockNo, data, currentPos);
-                Block.encode(out, block, blockSize);
+                out.write(batch, 0, blockCnt * blockSize);
             } finally {
                 out.close();
             }
-            return nextBlockNo;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            super.flush();
+            log.debug("flushing block #{} as last", currentBlockNo);
+            Block.encodeInPlace(batch, blockBase, currentBlockNo, 0, currentPos - blockBase - Block.payloadOffset(), blockSize);
+            writeBatch(blockBase / blockSize + 1);
+            if (blockBase > 0) {
+                //the current block may still get more data. keep it as the only one in batch
+                System.arraycopy(batch, blockBase, batch, 0, blockSize);
+                currentPos -= blockBase;
+                payloadEnd -= blockBase;
+                blockBase = 0;
+                batchStartNo = currentBlockNo;
+            }
         }
 
         @Override
         public void close() throws IOException {
             this.flush();
+            if (reservedNext < reservedEnd) {
+                alloc.free(reservedNext, reservedEnd - reservedNext);
+                reservedNext = reservedEnd;
+            }
             super.close();
         }
     }
 
+    /**
+     * Reads a chain block by block. When the chain is consumed sequentially and its blocks follow each other on disk,
+     * the following blocks are fetched together with the current one in one larger read. The read-ahead grows
+     * while the prefetched blocks get used and shrinks when they turn out to be wasted.
+     */
     private class BlockReadingInputStream extends InputStream {
-        byte[] data;
-        int currentPos;
+        private ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        ByteBuffer data;
         int nextBlock;
 
+        /** blocks windowStartNo .. windowStartNo + windowBlocks - 1, first of them at windowBase */
+        private ByteBuffer window;
+        private int windowBase;
+        private int windowStartNo;
+        private int windowBlocks;
+        private int windowUsed;
+        private int ahead = 1;
+        private int lastBlockNo = -1;
+
         private final int startBlockNo;
         private int totalRead;
 
@@ -225,26 +448,107 @@ public class BlockDevice {
 
         private void readNextBlock() {
             log.debug("readNextBlock({})", nextBlock);
-            final Block block = readBlock(nextBlock);
-            this.data = block.getData();
-            this.nextBlock = block.getNext();
-            this.currentPos = 0;
+            final int blockNo = nextBlock;
+            if (window == null || blockNo < windowStartNo || blockNo >= windowStartNo + windowBlocks) {
+                fillWindow(blockNo);
+            }
+            final int at = windowBase + (blockNo - windowStartNo) * blockSize;
+            window.limit(at + blockSize);
+            window.position(at);
+            windowUsed++;
+            lastBlockNo = blockNo;
+            this.nextBlock = Block.nextOf(window, blockSize);
+            this.data = Block.payloadOf(window, blockSize);
+        }
+
+        private void fillWindow(final int blockNo) {
+            if (window != null) {
+                if (blockNo == lastBlockNo + 1 && windowUsed == windowBlocks) {
+                    ahead = Math.min(ahead * 2, maxReadAhead);
+                } else if (windowUsed * 2 <= windowBlocks) {
+                    ahead = Math.max(1, ahead / 2);
+                }
+            }
+            int cnt = 1;
+            while (cnt < ahead && !alloc.isFree(blockNo + cnt)) {
+                cnt++;
+            }
+            if (buffer.capacity() < cnt * blockSize) {
+                buffer = ByteBuffer.allocate(Math.max(cnt, buffer.capacity() / blockSize * 2) * blockSize);
+            }
+            log.debug("reading {} blocks starting with {}", cnt, blockNo);
+            window = src.read(offset(blockNo), cnt * blockSize, buffer);
+            windowBase = window.position();
+            windowStartNo = blockNo;
+            windowBlocks = cnt;
+            windowUsed = 0;
         }
 
         @Override
         public int read() {
-            if (data.length == 0) {
-                return -1;
-            }
-            if (currentPos >= data.length) {
+            while (!data.hasRemaining()) {
                 if (nextBlock == 0) {
                     return -1;
+                }
+                readNextBlock();
+            }
+            totalRead++;
+            return data.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int done = 0;
+            while (done < len) {
+                if (!data.hasRemaining()) {
+                    if (nextBlock == 0) {
+                        break;
+                    }
+                    readNextBlock();
+                    continue;
+                }
+                final int n = Math.min(len - done, data.remaining());
+                data.get(b, off + done, n);
+                done += n;
+            }
+            if (done == 0) {
+                return -1;
+            }
+            totalRead += done;
+            return done;
+        }
+
+        /**
+         * what is left in the current block, t.i. what can be read without touching the storage
+         */
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+
+        /**
+         * whole blocks are skipped by following their next pointers, without their payload ever being copied
+         */
+        @Override
+        public long skip(final long n) {
+            long remaining = n;
+            while (remaining > 0) {
+                if (data.remaining() >= remaining) {
+                    data.position(data.position() + (int) remaining);
+                    remaining = 0;
                 } else {
+                    remaining -= data.remaining();
+                    data.position(data.limit());
+                    if (nextBlock == 0) {
+                        break;
+                    }
                     readNextBlock();
                 }
             }
-            totalRead++;
-            return data[currentPos++] & 0xff;
+            return n - remaining;
         }
 
         @Override
@@ -41,9 +41,18 @@ public class ByteBufferDataStorage implements ByteSink, ByteSrc {
     @Override
     public byte[] read(final long from, final int length) {
         final byte[] out = new byte[length];
-        for (int i = 0; i < length; i++) {
-            out[i] = target.get(i + (int) from);
-        }
+        read(from, length, null).get(out);
         return out;
     }
+
+    @Override
+    public ByteBuffer read(final long from, final int length, final ByteBuffer dst) {
+        if (from + length > Integer.MAX_VALUE) {
+            throw new RuntimeException();
+        }
+        final ByteBuffer view = target.asReadOnlyBuffer();
+        view.limit((int) from + length);
+        view.position((int) from);
+        return view;
+    }
 }
@@ -1,8 +1,18 @@
 package vfs.impl.core;
 
+import java.nio.ByteBuffer;
+
 public interface ByteSrc {
 
     byte[] read(long from, int length);
 
+    /**
+     * Same as {@link #read(long, int)}, but without allocating an array per call.
+     * The result is either dst filled with the requested bytes, or a read-only view of memory the source already holds;
+     * in both cases the bytes are between position and limit of the returned buffer.
+     * dst is owned by the caller and must have room for length bytes.
+     */
+    ByteBuffer read(long from, int length, ByteBuffer dst);
+
     void close();
 }
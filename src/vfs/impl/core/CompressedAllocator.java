@@ -0,0 +1,425 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Allocation bitmap in chunks of 2^16 blocks, each kept the cheapest way it allows, as in roaring bitmaps.
+ * A chunk nobody touched takes no memory, a chunk made of a few runs of used blocks (the usual shape, as chains
+ * are allocated in runs) keeps just their bounds, and only a chunk broken into many runs gets a plain bitmap.
+ * Memory follows the allocation pattern instead of the highest block ever used.
+ */
+@NotThreadSafe
+public class CompressedAllocator implements BlockAllocator {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int LOW_MASK = CHUNK_SIZE - 1;
+
+    private final int blockCnt;
+    private Chunk[] chunks = new Chunk[0];
+    /** no free block below it */
+    private int next;
+
+    public CompressedAllocator(final int blockCnt) {
+        this.blockCnt = blockCnt;
+    }
+
+    public CompressedAllocator(final BitSet src, final int blockCnt) {
+        this(blockCnt);
+        int start = src.nextSetBit(0);
+        while (start >= 0 && start < blockCnt) {
+            final int end = Math.min(blockCnt, src.nextClearBit(start));
+            use(start, end - start);
+            start = src.nextSetBit(end);
+        }
+        next = findFree(0);
+    }
+
+    @Override
+    public int allocAnywhere(final int num) {
+        final int start = num == 1 ? findFree(next) : findRun(next, num);
+        if (start < 0) {
+            throw new IllegalStateException("no " + num + " free consecutive blocks left");
+        }
+        use(start, num);
+        if (start == next) {
+            next = Math.max(start + num, findFree(start + num));
+        }
+        return start;
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo) {
+        if (isFree(blockNo + 1)) {
+            use(blockNo + 1, 1);
+            return blockNo + 1;
+        }
+        return allocAnywhere(1);
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo, final int num) {
+        final long end = (long) blockNo + 1 + num;
+        if (end <= blockCnt && findUsed(blockNo + 1, end) == end) {
+            use(blockNo + 1, num);
+            return blockNo + 1;
+        }
+        return allocAnywhere(num);
+    }
+
+    @Override
+    public void free(final int block) {
+        this.free(block, 1);
+    }
+
+    @Override
+    public void free(final int startBlock, final int num) {
+        long pos = startBlock;
+        final long end = (long) startBlock + num;
+        while (pos < end) {
+            final int high = (int) (pos >>> CHUNK_BITS);
+            final int from = (int) (pos & LOW_MASK);
+            final int to = (int) Math.min(CHUNK_SIZE, from + end - pos);
+            if (high < chunks.length && chunks[high] != null) {
+                chunks[high] = chunks[high].remove(from, to);
+            }
+            pos += to - from;
+        }
+        next = Math.min(next, startBlock);
+    }
+
+    @Override
+    public boolean isFree(final int block) {
+        if (block <= 0 || block >= blockCnt) {
+            return false;
+        }
+        final int high = block >>> CHUNK_BITS;
+        return high >= chunks.length || chunks[high] == null || !chunks[high].contains(block & LOW_MASK);
+    }
+
+    /**
+     * @return rough heap footprint of the bitmap
+     */
+    public long getSizeInBytes() {
+        long out = 16 + 4L * chunks.length;
+        for (final Chunk chunk : chunks) {
+            if (chunk != null) {
+                out += chunk.sizeInBytes();
+            }
+        }
+        return out;
+    }
+
+    private void use(final int start, final int num) {
+        long pos = start;
+        final long end = (long) start + num;
+        while (pos < end) {
+            final int high = (int) (pos >>> CHUNK_BITS);
+            final int from = (int) (pos & LOW_MASK);
+            final int to = (int) Math.min(CHUNK_SIZE, from + end - pos);
+            if (high >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, high + 1);
+            }
+            chunks[high] = chunks[high] == null ? new RunChunk(from, to) : chunks[high].add(from, to);
+            pos += to - from;
+        }
+    }
+
+    /**
+     * @return lowest free block at or after from, -1 if there is none
+     */
+    private int findFree(final int from) {
+        long pos = from;
+        while (pos < blockCnt) {
+            final int high = (int) (pos >>> CHUNK_BITS);
+            if (high >= chunks.length || chunks[high] == null) {
+                return (int) pos;
+            }
+            final int low = chunks[high].nextAbsent((int) (pos & LOW_MASK));
+            if (low < CHUNK_SIZE) {
+                final long out = ((long) high << CHUNK_BITS) | low;
+                return out < blockCnt ? (int) out : -1;
+            }
+            pos = (long) (high + 1) << CHUNK_BITS;
+        }
+        return -1;
+    }
+
+    /**
+     * @return lowest block in use in from .. limit - 1, or limit if they are all free
+     */
+    private long findUsed(final long from, final long limit) {
+        long pos = from;
+        while (pos < limit) {
+            final int high = (int) (pos >>> CHUNK_BITS);
+            if (high >= chunks.length) {
+                return limit;
+            }
+            if (chunks[high] != null) {
+                final int low = chunks[high].nextPresent((int) (pos & LOW_MASK));
+                if (low < CHUNK_SIZE) {
+                    return Math.min(limit, ((long) high << CHUNK_BITS) | low);
+                }
+            }
+            pos = (long) (high + 1) << CHUNK_BITS;
+        }
+        return limit;
+    }
+
+    /**
+     * first fit, starting from from
+     */
+    private int findRun(final int from, final int num) {
+        int start = findFree(from);
+        while (start >= 0) {
+            final long end = Math.min(blockCnt, findUsed(start, (long) start + num));
+            if (end - start >= num) {
+                return start;
+            }
+            start = end >= blockCnt ? -1 : findFree((int) end);
+        }
+        return -1;
+    }
+
+    /**
+     * used blocks of one chunk, numbered from 0 to {@link #CHUNK_SIZE}
+     */
+    private abstract static class Chunk {
+
+        abstract boolean contains(int x);
+
+        /**
+         * @return lowest absent number at or after x, CHUNK_SIZE if there is none
+         */
+        abstract int nextAbsent(int x);
+
+        /**
+         * @return lowest present number at or after x, CHUNK_SIZE if there is none
+         */
+        abstract int nextPresent(int x);
+
+        /**
+         * @return the chunk holding the result, which may be this one or a cheaper kind
+         */
+        abstract Chunk add(int from, int to);
+
+        /**
+         * @return the chunk holding the result, null when nothing is left
+         */
+        abstract Chunk remove(int from, int to);
+
+        abstract int sizeInBytes();
+    }
+
+    private static final class RunChunk extends Chunk {
+        /** from here on a bitmap is not bigger */
+        private static final int MAX_RUNS = CHUNK_SIZE / 64;
+
+        /** start and end (exclusive) of each run, sorted; runs neither overlap nor touch */
+        private int[] bounds = new int[4];
+        private int runs;
+
+        private RunChunk(final int from, final int to) {
+            bounds[0] = from;
+            bounds[1] = to;
+            runs = 1;
+        }
+
+        private int start(final int run) {
+            return bounds[2 * run];
+        }
+
+        private int end(final int run) {
+            return bounds[2 * run + 1];
+        }
+
+        /**
+         * @return last run starting at or before x, -1 if there is none
+         */
+        private int runAtOrBefore(final int x) {
+            int lo = 0;
+            int hi = runs - 1;
+            int out = -1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (start(mid) <= x) {
+                    out = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return out;
+        }
+
+        @Override
+        boolean contains(final int x) {
+            final int run = runAtOrBefore(x);
+            return run >= 0 && x < end(run);
+        }
+
+        @Override
+        int nextAbsent(final int x) {
+            final int run = runAtOrBefore(x);
+            return run >= 0 && x < end(run) ? end(run) : x;
+        }
+
+        @Override
+        int nextPresent(final int x) {
+            final int run = runAtOrBefore(x);
+            if (run >= 0 && x < end(run)) {
+                return x;
+            }
+            return run + 1 < runs ? start(run + 1) : CHUNK_SIZE;
+        }
+
+        @Override
+        Chunk add(final int from, final int to) {
+            //runs first .. last touch or overlap from .. to and melt into one
+            int first = runAtOrBefore(from);
+            if (first < 0 || end(first) < from) {
+                first++;
+            }
+            final int last = runAtOrBefore(to);
+            int start = from;
+            int end = to;
+            if (first <= last) {
+                start = Math.min(from, start(first));
+                end = Math.max(to, end(last));
+            }
+            splice(first, last, new int[]{start, end}, 1);
+            return runs > MAX_RUNS ? toBitmap() : this;
+        }
+
+        @Override
+        Chunk remove(final int from, final int to) {
+            //runs first .. last overlap from .. to; what sticks out on either side stays
+            int first = runAtOrBefore(from);
+            if (first < 0 || end(first) <= from) {
+                first++;
+            }
+            final int last = runAtOrBefore(to - 1);
+            if (first > last) {
+                return this;
+            }
+            final int[] pieces = new int[4];
+            int pieceCnt = 0;
+            if (start(first) < from) {
+                pieces[0] = start(first);
+                pieces[1] = from;
+                pieceCnt++;
+            }
+            if (end(last) > to) {
+                pieces[2 * pieceCnt] = to;
+                pieces[2 * pieceCnt + 1] = end(last);
+                pieceCnt++;
+            }
+            splice(first, last, pieces, pieceCnt);
+            if (runs == 0) {
+                return null;
+            }
+            return runs > MAX_RUNS ? toBitmap() : this;
+        }
+
+        /**
+         * replaces runs first .. last (none if last < first) with pieceCnt runs from pieces
+         */
+        private void splice(final int first, final int last, final int[] pieces, final int pieceCnt) {
+            final int removed = Math.max(0, last - first + 1);
+            final int newRuns = runs - removed + pieceCnt;
+            if (2 * newRuns > bounds.length) {
+                bounds = Arrays.copyOf(bounds, Math.max(2 * newRuns, bounds.length * 2));
+            }
+            System.arraycopy(bounds, 2 * (first + removed), bounds, 2 * (first + pieceCnt), 2 * (runs - first - removed));
+            System.arraycopy(pieces, 0, bounds, 2 * first, 2 * pieceCnt);
+            runs = newRuns;
+        }
+
+        private Chunk toBitmap() {
+            final BitmapChunk out = new BitmapChunk();
+            for (int run = 0; run < runs; run++) {
+                out.add(start(run), end(run));
+            }
+            return out;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return 32 + 4 * bounds.length;
+        }
+    }
+
+    private static final class BitmapChunk extends Chunk {
+        private final long[] words = new long[CHUNK_SIZE / 64];
+        private int cardinality;
+
+        @Override
+        boolean contains(final int x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int nextAbsent(final int x) {
+            int w = x >>> 6;
+            long bits = ~words[w] & (-1L << x);
+            while (bits == 0) {
+                if (++w == words.length) {
+                    return CHUNK_SIZE;
+                }
+                bits = ~words[w];
+            }
+            return w * 64 + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        int nextPresent(final int x) {
+            int w = x >>> 6;
+            long bits = words[w] & (-1L << x);
+            while (bits == 0) {
+                if (++w == words.length) {
+                    return CHUNK_SIZE;
+                }
+                bits = words[w];
+            }
+            return w * 64 + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        Chunk add(final int from, final int to) {
+            update(from, to, true);
+            //a fully used chunk is a single run
+            return cardinality == CHUNK_SIZE ? new RunChunk(0, CHUNK_SIZE) : this;
+        }
+
+        @Override
+        Chunk remove(final int from, final int to) {
+            update(from, to, false);
+            return cardinality == 0 ? null : this;
+        }
+
+        private void update(final int from, final int to, final boolean set) {
+            final int firstWord = from >>> 6;
+            final int lastWord = (to - 1) >>> 6;
+            for (int w = firstWord; w <= lastWord; w++) {
+                long mask = -1L;
+                if (w == firstWord) {
+                    mask &= -1L << from;
+                }
+                if (w == lastWord) {
+                    mask &= -1L >>> (63 - ((to - 1) & 63));
+                }
+                final int before = Long.bitCount(words[w]);
+                words[w] = set ? words[w] | mask : words[w] & ~mask;
+                cardinality += Long.bitCount(words[w]) - before;
+            }
+        }
+
+        @Override
+        int sizeInBytes() {
+            return 32 + 8 * words.length;
+        }
+    }
+}
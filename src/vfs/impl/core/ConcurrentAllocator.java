@@ -0,0 +1,243 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bitmap allocator that many threads can use at once without a lock. The block space is split into groups
+ * of {@link #GROUP_SIZE} blocks; every thread allocates from a group of its own, so writers do not fight over
+ * the same bitmap words and the blocks each of them writes stay together. Blocks are claimed by a CAS on the
+ * bitmap word holding them. When its group is full, a thread steals from the next group with room and stays there.
+ */
+@ThreadSafe
+public class ConcurrentAllocator implements BlockAllocator {
+
+    private static final int WORD_BITS = 64;
+    private static final int GROUP_WORDS = 512;
+    static final int GROUP_SIZE = GROUP_WORDS * WORD_BITS;
+
+    private final int blockCnt;
+    private final int groupCnt;
+    /** a set bit is a block in use */
+    private final AtomicLongArray words;
+    /**
+     * per group: no free block below word (low half) within the group; the high half is bumped on every free,
+     * so a search that raced with a free does not move the cursor past the freed block
+     */
+    private final AtomicLongArray cursors;
+    private final AtomicInteger nextGroup = new AtomicInteger();
+    private final ThreadLocal<int[]> affinity = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[]{nextGroup.getAndIncrement() % groupCnt};
+        }
+    };
+
+    public ConcurrentAllocator(final int blockCnt) {
+        this(new BitSet(), blockCnt);
+    }
+
+    public ConcurrentAllocator(final BitSet src, final int blockCnt) {
+        this.blockCnt = blockCnt;
+        final int wordCnt = (blockCnt + WORD_BITS - 1) / WORD_BITS;
+        this.groupCnt = (wordCnt + GROUP_WORDS - 1) / GROUP_WORDS;
+        this.words = new AtomicLongArray(wordCnt);
+        this.cursors = new AtomicLongArray(groupCnt);
+        final long[] init = new long[wordCnt];
+        //blocks past the end look used, so they are never handed out
+        for (int i = blockCnt; i < wordCnt * WORD_BITS; i++) {
+            init[i / WORD_BITS] |= 1L << i;
+        }
+        for (int i = src.nextSetBit(0); i >= 0 && i < blockCnt; i = src.nextSetBit(i + 1)) {
+            init[i / WORD_BITS] |= 1L << i;
+        }
+        for (int w = 0; w < wordCnt; w++) {
+            words.set(w, init[w]);
+        }
+    }
+
+    @Override
+    public int allocAnywhere(final int num) {
+        if (num > GROUP_SIZE) {
+            return allocHuge(num);
+        }
+        final int[] group = affinity.get();
+        for (int i = 0; i < groupCnt; i++) {
+            final int g = (group[0] + i) % groupCnt;
+            final int found = allocInGroup(g, num);
+            if (found >= 0) {
+                group[0] = g;
+                return found;
+            }
+        }
+        throw new IllegalStateException("no " + num + " free consecutive blocks left");
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo) {
+        return allocNextTo(blockNo, 1);
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo, final int num) {
+        if (blockNo >= 0 && (long) blockNo + 1 + num <= blockCnt && claim(blockNo + 1, num)) {
+            return blockNo + 1;
+        }
+        return allocAnywhere(num);
+    }
+
+    @Override
+    public void free(final int block) {
+        this.free(block, 1);
+    }
+
+    @Override
+    public void free(final int startBlock, final int num) {
+        int i = startBlock;
+        final int end = startBlock + num;
+        while (i < end) {
+            final int w = i / WORD_BITS;
+            final int to = Math.min(end, (w + 1) * WORD_BITS);
+            final long mask = mask(i, to);
+            long old;
+            do {
+                old = words.get(w);
+            } while (!words.compareAndSet(w, old, old & ~mask));
+            lowerCursor(w);
+            i = to;
+        }
+    }
+
+    @Override
+    public boolean isFree(final int block) {
+        return block > 0 && block < blockCnt && (words.get(block / WORD_BITS) & (1L << block)) == 0;
+    }
+
+    /**
+     * @return group the calling thread allocates from
+     */
+    int getGroup() {
+        return affinity.get()[0];
+    }
+
+    private int allocInGroup(final int group, final int num) {
+        final int firstWord = group * GROUP_WORDS;
+        final int limit = Math.min(blockCnt, (firstWord + GROUP_WORDS) * WORD_BITS);
+        final long cursor = cursors.get(group);
+        //words before the first one with a free block are full, the cursor may skip them
+        int full = firstWord + (int) cursor;
+        int pos = full * WORD_BITS;
+        while (pos < limit) {
+            final int w = pos / WORD_BITS;
+            final long free = ~words.get(w) & (-1L << pos);
+            if (free == 0) {
+                if (full == w) {
+                    full++;
+                }
+                pos = (w + 1) * WORD_BITS;
+                continue;
+            }
+            final int start = w * WORD_BITS + Long.numberOfTrailingZeros(free);
+            final int end = findUsed(start, Math.min(start + num, limit));
+            if (end - start < num) {
+                pos = end;
+            } else if (claim(start, num)) {
+                advanceCursor(group, cursor, full - firstWord);
+                return start;
+            }
+            //else lost the race for these blocks, look at the same spot again
+        }
+        advanceCursor(group, cursor, full - firstWord);
+        return -1;
+    }
+
+    /**
+     * runs longer than a group are rare, they are looked for in the whole bitmap
+     */
+    private int allocHuge(final int num) {
+        int start = 1;
+        while (start + num <= blockCnt) {
+            final int end = findUsed(start, start + num);
+            if (end - start >= num) {
+                if (claim(start, num)) {
+                    return start;
+                }
+                continue;
+            }
+            start = end + 1;
+        }
+        throw new IllegalStateException("no " + num + " free consecutive blocks left");
+    }
+
+    /**
+     * @return lowest block in use in from .. limit - 1, or limit if they are all free
+     */
+    private int findUsed(final int from, final int limit) {
+        int i = from;
+        while (i < limit) {
+            final long used = words.get(i / WORD_BITS) & (-1L << i);
+            if (used != 0) {
+                return Math.min(limit, i / WORD_BITS * WORD_BITS + Long.numberOfTrailingZeros(used));
+            }
+            i = (i / WORD_BITS + 1) * WORD_BITS;
+        }
+        return limit;
+    }
+
+    /**
+     * marks start .. start + num - 1 used, word by word; if another thread got any of them first,
+     * the words already claimed are given back
+     *
+     * @return whether all of them were free and are now taken
+     */
+    private boolean claim(final int start, final int num) {
+        final int end = start + num;
+        int i = start;
+        while (i < end) {
+            final int w = i / WORD_BITS;
+            final int to = Math.min(end, (w + 1) * WORD_BITS);
+            final long mask = mask(i, to);
+            long old;
+            do {
+                old = words.get(w);
+                if ((old & mask) != 0) {
+                    if (i > start) {
+                        free(start, i - start);
+                    }
+                    return false;
+                }
+            } while (!words.compareAndSet(w, old, old | mask));
+            i = to;
+        }
+        return true;
+    }
+
+    private void advanceCursor(final int group, final long seen, final int full) {
+        if (full > (int) seen) {
+            //fails if a free came in since seen was read, which is what keeps freed blocks in sight
+            cursors.compareAndSet(group, seen, (seen & 0xFFFFFFFF00000000L) | full);
+        }
+    }
+
+    private void lowerCursor(final int w) {
+        final int group = w / GROUP_WORDS;
+        final int inGroup = w % GROUP_WORDS;
+        long old;
+        long updated;
+        do {
+            old = cursors.get(group);
+            updated = ((old >>> 32) + 1) << 32 | Math.min((int) old, inGroup);
+        } while (!cursors.compareAndSet(group, old, updated));
+    }
+
+    /**
+     * @return bits from .. to - 1 of the word holding them, to is at most the end of that word
+     */
+    private static long mask(final int from, final int to) {
+        final long upTo = to % WORD_BITS == 0 ? -1L : ~(-1L << to);
+        return (-1L << from) & upTo;
+    }
+}
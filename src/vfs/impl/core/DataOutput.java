@@ -25,8 +25,14 @@ public class DataOutput {
     }
 
     public DataOutput write(final byte[] bs) {
-        for (final byte b : bs) {
-            write(b);
+        return write(bs, 0, bs.length);
+    }
+
+    public DataOutput write(final byte[] bs, final int off, final int len) {
+        try {
+            stream.write(bs, off, len);
+        } catch (IOException e) {
+            throw new VFSException(e);
         }
         return this;
     }
@@ -0,0 +1,151 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Tracks free space as extents, indexed both by start and by length.
+ * Runs are taken best fit, so big free extents are not chopped up by small requests,
+ * {@link #allocNextTo(int)} takes the block right after its hint whenever it is free,
+ * {@link #allocNextTo(int, int)} puts a run it cannot put there where it has room to grow,
+ * and freed blocks are merged with free neighbours right away.
+ */
+@NotThreadSafe
+public class ExtentAllocator implements BlockAllocator {
+
+    /** start -> length */
+    private final TreeMap<Integer, Integer> byStart = new TreeMap<Integer, Integer>();
+    /** length << 32 | start */
+    private final TreeSet<Long> byLength = new TreeSet<Long>();
+
+    public ExtentAllocator(final BitSet src, final int blockCnt) {
+        int start = src.nextClearBit(0);
+        while (start < blockCnt) {
+            final int end = src.nextSetBit(start);
+            if (end < 0 || end >= blockCnt) {
+                add(start, blockCnt - start);
+                break;
+            }
+            add(start, end - start);
+            start = src.nextClearBit(end);
+        }
+    }
+
+    public ExtentAllocator(final int blockCnt) {
+        add(0, blockCnt);
+    }
+
+    @Override
+    public int allocAnywhere(final int num) {
+        final Long fit = byLength.ceiling(key(num, 0));
+        if (fit == null) {
+            throw new IllegalStateException("no " + num + " free consecutive blocks left");
+        }
+        final int start = (int) (fit & 0xFFFFFFFFL);
+        take(start, (int) (fit >>> 32), num);
+        return start;
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo) {
+        final Integer length = byStart.get(blockNo + 1);
+        if (length != null) {
+            take(blockNo + 1, length, 1);
+            return blockNo + 1;
+        }
+        //the nearest free block after the hint still beats a best fit somewhere else
+        final Map.Entry<Integer, Integer> after = byStart.higherEntry(blockNo);
+        if (after == null) {
+            return allocAnywhere(1);
+        }
+        take(after.getKey(), after.getValue(), 1);
+        return after.getKey();
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo, final int num) {
+        final Integer length = byStart.get(blockNo + 1);
+        if (length != null && length >= num) {
+            take(blockNo + 1, length, num);
+            return blockNo + 1;
+        }
+        //a run next to a block carries a chain on, which grows by as much again: best fit in a hole with room for that
+        final Long roomy = byLength.ceiling(key(2 * num, 0));
+        if (roomy == null) {
+            return allocAnywhere(num);
+        }
+        final int start = (int) (roomy & 0xFFFFFFFFL);
+        take(start, (int) (roomy >>> 32), num);
+        return start;
+    }
+
+    @Override
+    public void free(final int block) {
+        this.free(block, 1);
+    }
+
+    @Override
+    public void free(final int startBlock, final int num) {
+        int start = startBlock;
+        int length = num;
+        final Map.Entry<Integer, Integer> before = byStart.floorEntry(startBlock);
+        if (before != null && before.getKey() + before.getValue() > startBlock) {
+            throw new IllegalArgumentException("block " + startBlock + " is already free");
+        }
+        final Map.Entry<Integer, Integer> after = byStart.ceilingEntry(startBlock);
+        if (after != null && after.getKey() < startBlock + num) {
+            throw new IllegalArgumentException("block " + after.getKey() + " is already free");
+        }
+        if (before != null && before.getKey() + before.getValue() == startBlock) {
+            remove(before.getKey(), before.getValue());
+            start = before.getKey();
+            length += before.getValue();
+        }
+        if (after != null && after.getKey() == startBlock + num) {
+            remove(after.getKey(), after.getValue());
+            length += after.getValue();
+        }
+        add(start, length);
+    }
+
+    @Override
+    public boolean isFree(final int block) {
+        if (block <= 0) {
+            return false;
+        }
+        final Map.Entry<Integer, Integer> e = byStart.floorEntry(block);
+        return e != null && e.getKey() + e.getValue() > block;
+    }
+
+    /**
+     * @return number of free extents; the more of them for the same free space, the more fragmented it is
+     */
+    public int getFreeExtentCount() {
+        return byStart.size();
+    }
+
+    private void take(final int start, final int length, final int num) {
+        remove(start, length);
+        if (length > num) {
+            add(start + num, length - num);
+        }
+    }
+
+    private void add(final int start, final int length) {
+        byStart.put(start, length);
+        byLength.add(key(length, start));
+    }
+
+    private void remove(final int start, final int length) {
+        byStart.remove(start);
+        byLength.remove(key(length, start));
+    }
+
+    private static Long key(final int length, final int start) {
+        return ((long) length << 32) | start;
+    }
+}
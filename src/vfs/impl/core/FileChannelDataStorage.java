@@ -0,0 +1,112 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.ThreadSafe;
+import vfs.exception.VFSException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Talks to the container only through positional FileChannel reads and writes.
+ * There is no shared file pointer, so any number of threads may read (and write distinct blocks) at once.
+ */
+@ThreadSafe
+public class FileChannelDataStorage implements FileDataStorage {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    public FileChannelDataStorage(final RandomAccessFile file) {
+        this.file = file;
+        this.channel = file.getChannel();
+    }
+
+    @Override
+    public BitSet loadOccupanceBitMap(final int blockSize) {
+        return OccupancyScanner.scan(channel, blockSize);
+    }
+
+    @Override
+    public void flush() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public OutputStream openOut(final long pos) {
+        return new OutputStream() {
+            long at = pos;
+
+            @Override
+            public void write(final int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                final ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                try {
+                    while (src.hasRemaining()) {
+                        at += channel.write(src, at);
+                    }
+                } catch (IOException e) {
+                    throw new VFSException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public byte[] read(final long from, final int length) {
+        final byte[] out = new byte[length];
+        readFully(from, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    @Override
+    public ByteBuffer read(final long from, final int length, final ByteBuffer dst) {
+        dst.clear();
+        dst.limit(length);
+        readFully(from, dst);
+        while (dst.hasRemaining()) {
+            dst.put((byte) 0);
+        }
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * reads until dst is full or end of file is reached. what is past the end stays zeroed.
+     */
+    private int readFully(final long from, final ByteBuffer dst) {
+        int total = 0;
+        try {
+            while (dst.hasRemaining()) {
+                final int n = channel.read(dst, from + total);
+                if (n < 0) {
+                    break;
+                }
+                total += n;
+            }
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,13 @@
+package vfs.impl.core;
+
+import java.util.BitSet;
+
+/**
+ * Storage backed by a single container file.
+ * Unlike in-memory storages it outlives the vfs, so it can be asked which blocks are already in use.
+ */
+public interface FileDataStorage extends ByteSink, ByteSrc {
+
+    BitSet loadOccupanceBitMap(final int blockSize);
+
+}
@@ -0,0 +1,342 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.NotThreadSafe;
+import util.collections.Cf;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Bitmap allocator with summary levels on top of the bitmap: bit i of level k is set when word i of level k - 1
+ * has a free block below it. Finding the next free block walks up until a level has a set bit and back down,
+ * so it costs the same on an empty and on a nearly full container. The count of free blocks is kept as it changes.
+ * For runs, each word of the bitmap and each group of 64 nodes above it knows its free run at the low end,
+ * the one at the high end and its longest one, so a first fit search goes down only into nodes that can hold the run.
+ */
+@NotThreadSafe
+public class HierarchicalAllocator implements BlockAllocator {
+
+    private static final int WORD_BITS = 64;
+
+    /** levels.get(0) is the bitmap itself, a set bit is a block in use; the last level is a single word */
+    private final List<long[]> levels = Cf.newArrayList();
+    /** free runs of the nodes of each level, level 0 being the words of the bitmap; the last level is a single node */
+    private final List<int[]> lowRuns = Cf.newArrayList();
+    private final List<int[]> highRuns = Cf.newArrayList();
+    private final List<int[]> longestRuns = Cf.newArrayList();
+    private final int blockCnt;
+    private int freeCnt;
+
+    public HierarchicalAllocator(final int blockCnt) {
+        this(new BitSet(), blockCnt);
+    }
+
+    public HierarchicalAllocator(final BitSet src, final int blockCnt) {
+        this.blockCnt = blockCnt;
+        int words = words(blockCnt);
+        final long[] bitmap = new long[words];
+        levels.add(bitmap);
+        while (words > 1) {
+            words = words(words);
+            levels.add(new long[words]);
+        }
+        //blocks past the end look used, so they are never handed out
+        for (int i = blockCnt; i < bitmap.length * WORD_BITS; i++) {
+            bitmap[i / WORD_BITS] |= 1L << i;
+        }
+        for (int i = src.nextSetBit(0); i >= 0 && i < blockCnt; i = src.nextSetBit(i + 1)) {
+            bitmap[i / WORD_BITS] |= 1L << i;
+        }
+        freeCnt = blockCnt - src.get(0, blockCnt).cardinality();
+        for (int w = 0; w < bitmap.length; w++) {
+            if (bitmap[w] != -1L) {
+                markHasFree(1, w);
+            }
+        }
+        int nodes = bitmap.length;
+        while (true) {
+            lowRuns.add(new int[nodes]);
+            highRuns.add(new int[nodes]);
+            longestRuns.add(new int[nodes]);
+            if (nodes == 1) {
+                break;
+            }
+            nodes = words(nodes);
+        }
+        for (int w = 0; w < bitmap.length; w++) {
+            summarizeWord(w);
+        }
+        for (int level = 1; level < lowRuns.size(); level++) {
+            for (int node = 0; node < lowRuns.get(level).length; node++) {
+                summarizeNode(level, node);
+            }
+        }
+    }
+
+    @Override
+    public int allocAnywhere(final int num) {
+        final int start = num == 1 ? findFree(0) : findRun(num);
+        if (start < 0) {
+            throw new IllegalStateException("no " + num + " free consecutive blocks left");
+        }
+        use(start, num);
+        return start;
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo) {
+        final int found = findFree(blockNo + 1);
+        if (found < 0) {
+            return allocAnywhere(1);
+        }
+        use(found, 1);
+        return found;
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo, final int num) {
+        if (blockNo + 1 < blockCnt && findUsed(blockNo + 1, blockNo + 1 + num) - (blockNo + 1) >= num) {
+            use(blockNo + 1, num);
+            return blockNo + 1;
+        }
+        return allocAnywhere(num);
+    }
+
+    @Override
+    public void free(final int block) {
+        this.free(block, 1);
+    }
+
+    @Override
+    public void free(final int startBlock, final int num) {
+        final long[] bitmap = levels.get(0);
+        for (int i = startBlock; i < startBlock + num; i++) {
+            final int w = i / WORD_BITS;
+            final long bit = 1L << i;
+            if ((bitmap[w] & bit) == 0) {
+                continue;
+            }
+            if (bitmap[w] == -1L) {
+                markHasFree(1, w);
+            }
+            bitmap[w] &= ~bit;
+            freeCnt++;
+        }
+        runsChanged(startBlock, num);
+    }
+
+    @Override
+    public boolean isFree(final int block) {
+        return block > 0 && block < blockCnt && (levels.get(0)[block / WORD_BITS] & (1L << block)) == 0;
+    }
+
+    public int getFreeCount() {
+        return freeCnt;
+    }
+
+    private void use(final int start, final int num) {
+        final long[] bitmap = levels.get(0);
+        for (int i = start; i < start + num; i++) {
+            final int w = i / WORD_BITS;
+            final long bit = 1L << i;
+            if ((bitmap[w] & bit) != 0) {
+                throw new AssertionError("already allocated " + i);
+            }
+            bitmap[w] |= bit;
+            freeCnt--;
+            if (bitmap[w] == -1L) {
+                clearHasFree(1, w);
+            }
+        }
+        runsChanged(start, num);
+    }
+
+    private void markHasFree(final int level, final int index) {
+        if (level == levels.size()) {
+            return;
+        }
+        final long[] words = levels.get(level);
+        final int w = index / WORD_BITS;
+        final boolean wasEmpty = words[w] == 0;
+        words[w] |= 1L << index;
+        if (wasEmpty) {
+            markHasFree(level + 1, w);
+        }
+    }
+
+    private void clearHasFree(final int level, final int index) {
+        if (level == levels.size()) {
+            return;
+        }
+        final long[] words = levels.get(level);
+        final int w = index / WORD_BITS;
+        words[w] &= ~(1L << index);
+        if (words[w] == 0) {
+            clearHasFree(level + 1, w);
+        }
+    }
+
+    /**
+     * @return lowest free block at or after from, -1 if there is none
+     */
+    private int findFree(final int from) {
+        if (from >= blockCnt) {
+            return -1;
+        }
+        final long[] bitmap = levels.get(0);
+        final int w = from / WORD_BITS;
+        final long free = ~bitmap[w] & (-1L << from);
+        if (free != 0) {
+            return w * WORD_BITS + Long.numberOfTrailingZeros(free);
+        }
+        final int next = nextSet(1, w + 1);
+        return next < 0 ? -1 : next * WORD_BITS + Long.numberOfTrailingZeros(~bitmap[next]);
+    }
+
+    /**
+     * @return lowest set bit at or after from on the given summary level, -1 if there is none
+     */
+    private int nextSet(final int level, final int from) {
+        if (level == levels.size()) {
+            return -1;
+        }
+        final long[] words = levels.get(level);
+        final int w = from / WORD_BITS;
+        if (w >= words.length) {
+            return -1;
+        }
+        final long bits = words[w] & (-1L << from);
+        if (bits != 0) {
+            return w * WORD_BITS + Long.numberOfTrailingZeros(bits);
+        }
+        final int next = nextSet(level + 1, w + 1);
+        return next < 0 ? -1 : next * WORD_BITS + Long.numberOfTrailingZeros(words[next]);
+    }
+
+    /**
+     * @return lowest block in use in from .. limit - 1, or limit if they are all free
+     */
+    private int findUsed(final int from, final int limit) {
+        final long[] bitmap = levels.get(0);
+        int i = from;
+        while (i < limit && i < blockCnt) {
+            final long used = bitmap[i / WORD_BITS] & (-1L << i);
+            if (used != 0) {
+                return Math.min(limit, i / WORD_BITS * WORD_BITS + Long.numberOfTrailingZeros(used));
+            }
+            i = (i / WORD_BITS + 1) * WORD_BITS;
+        }
+        return Math.min(limit, blockCnt);
+    }
+
+    private static int words(final int bits) {
+        return (bits + WORD_BITS - 1) / WORD_BITS;
+    }
+
+    private void runsChanged(final int start, final int num) {
+        for (int w = start / WORD_BITS; w <= (start + num - 1) / WORD_BITS; w++) {
+            summarizeWord(w);
+            int node = w;
+            for (int level = 1; level < lowRuns.size(); level++) {
+                node /= WORD_BITS;
+                summarizeNode(level, node);
+            }
+        }
+    }
+
+    private void summarizeWord(final int w) {
+        final long used = levels.get(0)[w];
+        lowRuns.get(0)[w] = Long.numberOfTrailingZeros(used);
+        highRuns.get(0)[w] = Long.numberOfLeadingZeros(used);
+        //each step shortens every run of free bits by one
+        int longest = 0;
+        for (long free = ~used; free != 0; free &= free >>> 1) {
+            longest++;
+        }
+        longestRuns.get(0)[w] = longest;
+    }
+
+    /**
+     * runs of a node from those of its children; a node short of children at the end counts the missing ones as used
+     */
+    private void summarizeNode(final int level, final int node) {
+        final int[] lows = lowRuns.get(level - 1);
+        final int[] highs = highRuns.get(level - 1);
+        final int[] longests = longestRuns.get(level - 1);
+        final long childSize = nodeSize(level - 1);
+        final int end = Math.min(lows.length, (node + 1) * WORD_BITS);
+        long low = 0;
+        boolean allFree = true;
+        long run = 0;
+        long longest = 0;
+        for (int child = node * WORD_BITS; child < end; child++) {
+            if (allFree) {
+                low += lows[child];
+                allFree = lows[child] == childSize;
+            }
+            longest = Math.max(longest, Math.max(longests[child], run + lows[child]));
+            run = lows[child] == childSize ? run + childSize : highs[child];
+        }
+        if (end - node * WORD_BITS < WORD_BITS) {
+            allFree = false;
+        }
+        lowRuns.get(level)[node] = (int) low;
+        highRuns.get(level)[node] = (int) (allFree ? low : run);
+        longestRuns.get(level)[node] = (int) Math.max(longest, run);
+    }
+
+    private static long nodeSize(final int level) {
+        return 1L << (6 * (level + 1));
+    }
+
+    /**
+     * first fit, from the top node down into the first child that holds a long enough run or starts one with the children before it
+     *
+     * @return lowest start of num free blocks, -1 if there is none
+     */
+    private int findRun(final int num) {
+        final int top = lowRuns.size() - 1;
+        if (longestRuns.get(top)[0] < num) {
+            return -1;
+        }
+        return findRun(top, 0, num);
+    }
+
+    private int findRun(final int level, final int node, final int num) {
+        if (level == 0) {
+            //a bit stays set where the num bits from it on are all free
+            final long free = ~levels.get(0)[node];
+            long starts = free;
+            for (int i = 1; i < num; i++) {
+                starts &= free >>> i;
+            }
+            return node * WORD_BITS + Long.numberOfTrailingZeros(starts);
+        }
+        final int[] lows = lowRuns.get(level - 1);
+        final int[] highs = highRuns.get(level - 1);
+        final int[] longests = longestRuns.get(level - 1);
+        final long childSize = nodeSize(level - 1);
+        final int end = Math.min(lows.length, (node + 1) * WORD_BITS);
+        long run = 0;
+        long runStart = 0;
+        for (int child = node * WORD_BITS; child < end; child++) {
+            final long childStart = child * childSize;
+            if (run == 0) {
+                runStart = childStart;
+            }
+            if (run + lows[child] >= num) {
+                return (int) runStart;
+            }
+            if (longests[child] >= num) {
+                return findRun(level - 1, child, num);
+            }
+            if (lows[child] == childSize) {
+                run += childSize;
+            } else {
+                run = highs[child];
+                runStart = childStart + childSize - run;
+            }
+        }
+        throw new AssertionError("node " + node + " of level " + level + " has no run of " + num);
+    }
+}
@@ -0,0 +1,177 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.collections.Cf;
+import vfs.exception.VFSException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Maps the container file into memory in fixed-size segments, so reads and writes of blocks are plain memory copies.
+ * Segments are mapped lazily as blocks past the current end are touched, which also grows the file;
+ * on close the file is trimmed back to the bytes actually written.
+ */
+@NotThreadSafe
+public class MappedFileDataStorage implements FileDataStorage {
+    private static final Logger log = LoggerFactory.getLogger(MappedFileDataStorage.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = Cf.newArrayList();
+
+    private long length;
+
+    public MappedFileDataStorage(final RandomAccessFile file) {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedFileDataStorage(final RandomAccessFile file, final int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segment size must be positive, got " + segmentSize);
+        }
+        this.file = file;
+        this.channel = file.getChannel();
+        this.segmentSize = segmentSize;
+        try {
+            this.length = channel.size();
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+    }
+
+    @Override
+    public BitSet loadOccupanceBitMap(final int blockSize) {
+        final long blockCnt = length / blockSize;
+        if (blockCnt > Integer.MAX_VALUE) {
+            throw new RuntimeException("cannot fit content of file into one bitset. required " + blockCnt);
+        }
+        flush();
+        return OccupancyScanner.scan(channel, (int) blockCnt, blockSize);
+    }
+
+    @Override
+    public void flush() {
+        for (final MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        segments.clear();
+        try {
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+        } catch (IOException e) {
+            //some platforms refuse to truncate a file that is still mapped. the tail is just zeroes, so live with it
+            log.warn("could not trim container to " + length + " bytes", e);
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public OutputStream openOut(final long pos) {
+        return new OutputStream() {
+            long at = pos;
+
+            @Override
+            public void write(final int b) {
+                segment(at).put(inSegment(at), (byte) (b & 0xFF));
+                advance(1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                int done = 0;
+                while (done < len) {
+                    final MappedByteBuffer segment = segment(at);
+                    final int inSegment = inSegment(at);
+                    final int n = Math.min(len - done, segmentSize - inSegment);
+                    segment.position(inSegment);
+                    segment.put(b, off + done, n);
+                    done += n;
+                    advance(n);
+                }
+            }
+
+            private void advance(final int n) {
+                at += n;
+                length = Math.max(length, at);
+            }
+        };
+    }
+
+    @Override
+    public byte[] read(final long from, final int length) {
+        final byte[] out = new byte[length];
+        copyTo(from, out, 0, length);
+        return out;
+    }
+
+    @Override
+    public ByteBuffer read(final long from, final int length, final ByteBuffer dst) {
+        final int inSegment = inSegment(from);
+        if (inSegment + length <= segmentSize) {
+            final ByteBuffer view = segment(from).asReadOnlyBuffer();
+            view.limit(inSegment + length);
+            view.position(inSegment);
+            return view;
+        }
+        dst.clear();
+        copyTo(from, dst.array(), dst.arrayOffset(), length);
+        dst.limit(length);
+        return dst;
+    }
+
+    private void copyTo(final long from, final byte[] out, final int off, final int len) {
+        int done = 0;
+        while (done < len) {
+            final long pos = from + done;
+            final MappedByteBuffer segment = segment(pos);
+            final int inSegment = inSegment(pos);
+            final int n = Math.min(len - done, segmentSize - inSegment);
+            segment.position(inSegment);
+            segment.get(out, off + done, n);
+            done += n;
+        }
+    }
+
+    private int inSegment(final long pos) {
+        return (int) (pos % segmentSize);
+    }
+
+    private MappedByteBuffer segment(final long pos) {
+        final long idx = pos / segmentSize;
+        if (idx > Integer.MAX_VALUE) {
+            throw new VFSException("position " + pos + " is out of reach");
+        }
+        while (segments.size() <= idx) {
+            final long start = (long) segments.size() * segmentSize;
+            try {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize));
+            } catch (IOException e) {
+                throw new VFSException(e);
+            }
+            log.debug("mapped segment #{} starting at {}", segments.size() - 1, start);
+        }
+        return segments.get((int) idx);
+    }
+}
@@ -0,0 +1,122 @@
+package vfs.impl.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.collections.Cf;
+import vfs.exception.VFSCorruptException;
+import vfs.exception.VFSException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rebuilds the allocation bitmap by looking at every block of a container, for when there is no persisted one to trust.
+ * The container is split into ranges that are read with large positional reads and checked on a pool of threads;
+ * of each block only the header and trailer words are looked at.
+ */
+class OccupancyScanner {
+    private static final Logger log = LoggerFactory.getLogger(OccupancyScanner.class);
+
+    private static final int RANGE_BYTES = 4 * 1024 * 1024;
+
+    private OccupancyScanner() {
+    }
+
+    static BitSet scan(final FileChannel channel, final int blockSize) {
+        final long blockCnt;
+        try {
+            blockCnt = channel.size() / blockSize;
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+        if (blockCnt > Integer.MAX_VALUE) {
+            throw new RuntimeException("cannot fit content of file into one bitset. required " + blockCnt);
+        }
+        return scan(channel, (int) blockCnt, blockSize);
+    }
+
+    static BitSet scan(final FileChannel channel, final int blockCnt, final int blockSize) {
+        final long startTs = System.currentTimeMillis();
+        final int blocksPerRange = Math.max(1, RANGE_BYTES / blockSize);
+        final int rangeCnt = (int) ((blockCnt + (long) blocksPerRange - 1) / blocksPerRange);
+        final int threads = Math.max(1, Math.min(rangeCnt, Runtime.getRuntime().availableProcessors()));
+
+        final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocate(blocksPerRange * blockSize);
+            }
+        };
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final BitSet out = new BitSet(blockCnt);
+        try {
+            final List<Future<BitSet>> parts = Cf.newArrayList();
+            for (int r = 0; r < rangeCnt; r++) {
+                final int first = r * blocksPerRange;
+                final int cnt = Math.min(blocksPerRange, blockCnt - first);
+                parts.add(pool.submit(new Callable<BitSet>() {
+                    @Override
+                    public BitSet call() {
+                        return scanRange(channel, buffers.get(), first, cnt, blockSize);
+                    }
+                }));
+            }
+            for (int r = 0; r < rangeCnt; r++) {
+                final BitSet part = parts.get(r).get();
+                final int first = r * blocksPerRange;
+                for (int i = part.nextSetBit(0); i >= 0; i = part.nextSetBit(i + 1)) {
+                    out.set(first + i);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VFSException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new VFSException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        final long took = Math.max(1, System.currentTimeMillis() - startTs);
+        final long bytes = (long) blockCnt * blockSize;
+        log.info("scanned {} blocks in {} ms on {} threads, {} MB/s",
+                new Object[]{blockCnt, took, threads, bytes * 1000 / took / (1024 * 1024)});
+        return out;
+    }
+
+    /**
+     * @return occupied blocks of the range, numbered from its first block
+     */
+    private static BitSet scanRange(final FileChannel channel, final ByteBuffer buffer, final int first, final int cnt, final int blockSize) {
+        buffer.clear();
+        buffer.limit(cnt * blockSize);
+        final long from = BlockDevice.offset(first, blockSize);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    throw new VFSCorruptException("container ended at " + (from + buffer.position()) + " while scanning");
+                }
+            }
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+        final BitSet out = new BitSet(cnt);
+        for (int i = 0; i < cnt; i++) {
+            if (Block.isOccupied(buffer, i * blockSize, first + i, blockSize)) {
+                out.set(i);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,201 @@
+package vfs.impl.core;
+
+import net.jcip.annotations.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vfs.exception.VFSCorruptException;
+import vfs.exception.VFSException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Keeps the allocation bitmap on the container, so that opening it does not need to scan every block.
+ * The bitmap lives in a run of ordinary blocks: block i of the run holds bits i * bitsPerBlock .. (i + 1) * bitsPerBlock - 1
+ * as its payload. {@link #sync()} rewrites only the blocks whose bits changed since the last sync,
+ * and moves the bitmap to a bigger run once the container outgrows the current one.
+ * Allocating and freeing are as thread-safe as the delegate: what they change is noted under a lock of its own.
+ * {@link #sync()} is for one thread at a time.
+ */
+public class PersistentAllocator implements BlockAllocator {
+    private static final Logger log = LoggerFactory.getLogger(PersistentAllocator.class);
+
+    private final BlockAllocator delegate;
+    private final ByteSink sink;
+    private final int blockSize;
+    private final int bitsPerBlock;
+
+    private int regionStart;
+    private int regionBlocks;
+    @GuardedBy("dirty")
+    private int highest;
+    /** bitmap blocks to rewrite, by index within the run */
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * @param regionStart first block of the persisted bitmap, -1 if there is none yet
+     * @param highest     highest block in use
+     * @param upToDate    whether the persisted bitmap matches delegate; if not, all of it is rewritten on the next sync
+     */
+    public PersistentAllocator(final BlockAllocator delegate, final int blockSize, final ByteSink sink,
+                               final int regionStart, final int regionBlocks, final int highest, final boolean upToDate) {
+        this.delegate = delegate;
+        this.sink = sink;
+        this.blockSize = blockSize;
+        this.bitsPerBlock = Block.calcUsefulPayload(blockSize) * 8;
+        this.regionStart = regionStart;
+        this.regionBlocks = regionStart < 0 ? 0 : regionBlocks;
+        this.highest = highest;
+        if (!upToDate) {
+            dirty.set(0, this.regionBlocks);
+        }
+    }
+
+    /**
+     * reads a bitmap persisted by {@link #sync()}, with a single read
+     */
+    public static BitSet load(final ByteSrc src, final int blockSize, final int regionStart, final int regionBlocks) throws VFSCorruptException {
+        final int bitsPerBlock = Block.calcUsefulPayload(blockSize) * 8;
+        final ByteBuffer region = ByteBuffer.wrap(src.read(BlockDevice.offset(regionStart, blockSize), regionBlocks * blockSize));
+        final BitSet out = new BitSet(regionBlocks * bitsPerBlock);
+        for (int i = 0; i < regionBlocks; i++) {
+            region.limit((i + 1) * blockSize);
+            region.position(i * blockSize);
+            if (Block.noOf(region) != regionStart + i) {
+                throw new VFSCorruptException();
+            }
+            final int length = Block.lengthOf(region, blockSize);
+            final int payload = i * blockSize + Block.payloadOffset();
+            for (int j = 0; j < length; j++) {
+                final int v = region.get(payload + j);
+                for (int k = 0; k < 8; k++) {
+                    if ((v & (1 << k)) != 0) {
+                        out.set(i * bitsPerBlock + j * 8 + k);
+                    }
+                }
+            }
+        }
+        log.debug("loaded bitmap of {} blocks starting with {}", regionBlocks, regionStart);
+        return out;
+    }
+
+    @Override
+    public int allocAnywhere(final int num) {
+        return allocated(delegate.allocAnywhere(num), num);
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo) {
+        return allocated(delegate.allocNextTo(blockNo), 1);
+    }
+
+    @Override
+    public int allocNextTo(final int blockNo, final int num) {
+        return allocated(delegate.allocNextTo(blockNo, num), num);
+    }
+
+    @Override
+    public void free(final int block) {
+        this.free(block, 1);
+    }
+
+    @Override
+    public void free(final int startBlock, final int num) {
+        delegate.free(startBlock, num);
+        touched(startBlock, num);
+    }
+
+    @Override
+    public boolean isFree(final int block) {
+        return delegate.isFree(block);
+    }
+
+    private int allocated(final int start, final int num) {
+        synchronized (dirty) {
+            highest = Math.max(highest, start + num - 1);
+            touched(start, num);
+        }
+        return start;
+    }
+
+    private void touched(final int start, final int num) {
+        synchronized (dirty) {
+            dirty.set(start / bitsPerBlock, (start + num - 1) / bitsPerBlock + 1);
+        }
+    }
+
+    private int highest() {
+        synchronized (dirty) {
+            return highest;
+        }
+    }
+
+    /**
+     * writes changed parts of the bitmap to the sink
+     *
+     * @return true if the bitmap moved, so whoever keeps its location has to update it
+     */
+    public boolean sync() {
+        boolean moved = false;
+        while (regionStart < 0 || (long) regionBlocks * bitsPerBlock <= highest()) {
+            if (regionStart >= 0) {
+                free(regionStart, regionBlocks);
+            }
+            //room to grow, so the bitmap does not move with every few allocated blocks
+            regionBlocks = 2 * ((highest() + 1) / bitsPerBlock + 1);
+            regionStart = allocAnywhere(regionBlocks);
+            moved = true;
+            log.debug("bitmap moved to {} blocks starting with {}", regionBlocks, regionStart);
+        }
+        //blocks changing from here on are noted for the next sync
+        final BitSet pages;
+        synchronized (dirty) {
+            if (moved) {
+                dirty.set(0, regionBlocks);
+            }
+            pages = (BitSet) dirty.clone();
+            dirty.clear();
+        }
+        final byte[] block = new byte[blockSize];
+        final int payload = Block.calcUsefulPayload(blockSize);
+        for (int i = pages.nextSetBit(0); i >= 0 && i < regionBlocks; i = pages.nextSetBit(i + 1)) {
+            encodePage(i, block, payload);
+            write(regionStart + i, block);
+        }
+        return moved;
+    }
+
+    private void encodePage(final int page, final byte[] block, final int payload) {
+        final int base = page * bitsPerBlock;
+        for (int j = 0; j < payload; j++) {
+            int v = 0;
+            for (int k = 0; k < 8; k++) {
+                if (!delegate.isFree(base + j * 8 + k)) {
+                    v |= 1 << k;
+                }
+            }
+            block[Block.payloadOffset() + j] = (byte) v;
+        }
+        Block.encodeInPlace(block, 0, regionStart + page, 0, payload, blockSize);
+    }
+
+    private void write(final int blockNo, final byte[] block) {
+        final OutputStream out = sink.openOut(BlockDevice.offset(blockNo, blockSize));
+        try {
+            out.write(block);
+            out.close();
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+    }
+
+    public int getRegionStart() {
+        return regionStart;
+    }
+
+    public int getRegionBlocks() {
+        return regionBlocks;
+    }
+}
@@ -1,17 +1,17 @@
 package vfs.impl.core;
 
 import net.jcip.annotations.NotThreadSafe;
-import vfs.exception.VFSCorruptException;
 import vfs.exception.VFSException;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.BitSet;
 
 @NotThreadSafe
-public class RandomAccessFileDataStorage implements ByteSink, ByteSrc {
+public class RandomAccessFileDataStorage implements FileDataStorage {
 
     private final RandomAccessFile file;
 
@@ -19,46 +19,11 @@ public class RandomAccessFileDataStorage implements ByteSink, ByteSrc {
         this.file = file;
     }
 
+    @Override
     public BitSet loadOccupanceBitMap(final int blockSize) {
-        final long blockCnt;
-        try {
-            blockCnt = file.length() / blockSize;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        if (blockCnt > Integer.MAX_VALUE) {
-            throw new RuntimeException("cannot fit content of file into one bitset. required " + blockCnt);
-        }
-        final BitSet out = new BitSet((int) blockCnt);
-        try {
-            file.seek(0);
-            final byte[] buf = new byte[blockSize];
-            int blockNum = 0;
-            while (true) {
-                final int read = file.read(buf);
-                if (read == blockSize) {
-                    final Block block = Block.decode(new ByteArrayInputStream(buf), blockSize);
-                    if (blockNum == 0 && block.getNo() == 0) {
-                        out.set(blockNum);
-                    } else {
-                        if (!block.isClear()) {
-                            assert block.getNo() == blockNum;
-                            out.set(blockNum);
-                        }
-                    }
-                    blockNum++;
-                } else if (read == -1) {
-                    return out;
-                } else {
-                    throw new VFSCorruptException("read " + read + " while expected % blocksize");
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return OccupancyScanner.scan(file.getChannel(), blockSize);
     }
 
-
     @Override
     public void flush() {
         //doNothing
@@ -113,4 +78,29 @@ public class RandomAccessFileDataStorage implements ByteSink, ByteSrc {
             throw new RuntimeException(e);
         }
     }
+
+    @Override
+    public ByteBuffer read(final long from, final int length, final ByteBuffer dst) {
+        final byte[] out = dst.array();
+        final int off = dst.arrayOffset();
+        int read = 0;
+        try {
+            if (file.getFilePointer() != from) {
+                file.seek(from);
+            }
+            while (read < length) {
+                final int n = file.read(out, off + read, length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Arrays.fill(out, off + read, off + length, (byte) 0);
+        dst.clear();
+        dst.limit(length);
+        return dst;
+    }
 }
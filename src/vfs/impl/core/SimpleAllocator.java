@@ -13,17 +13,23 @@ public class SimpleAllocator implements BlockAllocator {
 
     public SimpleAllocator(final BitSet src) {
         this.bs = src.get(0, src.length());
-        this.next = src.nextSetBit(1) + 1;
+        this.next = bs.nextClearBit(1);
     }
 
-    public SimpleAllocator(final int blockCnt) {
-        this.bs = new BitSet(blockCnt);
+    /**
+     * an allocator with all blocks free; the bitmap grows with use
+     */
+    public SimpleAllocator() {
+        this.bs = new BitSet();
         this.next = 0;
     }
 
     @Override
     public int allocAnywhere(final int blockNum) {
-        return doAlloc(next);
+        if (blockNum == 1) {
+            return doAlloc(next);
+        }
+        return doAlloc(findRun(next, blockNum), blockNum);
     }
 
     @Override
@@ -31,6 +37,18 @@ public class SimpleAllocator implements BlockAllocator {
         return allocAnywhere(1);
     }
 
+    @Override
+    public int allocNextTo(final int blockNo, final int num) {
+        final int start = blockNo + 1;
+        if (start > 0) {
+            final int used = bs.nextSetBit(start);
+            if (used < 0 || used - start >= num) {
+                return doAlloc(start, num);
+            }
+        }
+        return allocAnywhere(num);
+    }
+
     @Override
     public void free(final int block) {
         this.free(block, 1);
@@ -57,7 +75,29 @@ public class SimpleAllocator implements BlockAllocator {
         return pos;
     }
 
+    private int doAlloc(final int start, final int num) {
+        bs.set(start, start + num);
+        if (next >= start && next < start + num) {
+            next = findNext(start + num);
+        }
+        return start;
+    }
+
     private int findNext(final int startingFrom) {
         return bs.nextClearBit(startingFrom);
     }
+
+    /**
+     * first fit: lowest start of num consecutive free blocks, starting from startingFrom
+     */
+    private int findRun(final int startingFrom, final int num) {
+        int start = findNext(startingFrom);
+        while (true) {
+            final int end = bs.nextSetBit(start);
+            if (end < 0 || end - start >= num) {
+                return start;
+            }
+            start = findNext(end);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package vfs.impl.proto;
+
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU map from absolute path to the file found there. A path known not to exist is kept too,
+ * as a negative entry, so that probing for missing names does not list their directory every time.
+ * ProtoVFS keeps it in step with what it creates and removes.
+ */
+@ThreadSafe
+class DentryCache {
+
+    private final LinkedHashMap<String, ProtoVFile> entries;
+
+    private long hits;
+    private long misses;
+
+    DentryCache(final int capacity) {
+        this.entries = new LinkedHashMap<String, ProtoVFile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, ProtoVFile> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return file at path, null if it is not cached or known not to exist, see {@link #isMissing(String)}
+     */
+    @Nullable
+    synchronized ProtoVFile get(final String path) {
+        final ProtoVFile out = entries.get(path);
+        if (out != null) {
+            hits++;
+        }
+        return out;
+    }
+
+    synchronized boolean isMissing(final String path) {
+        final boolean out = entries.containsKey(path) && entries.get(path) == null;
+        if (out) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return out;
+    }
+
+    synchronized void put(final String path, final ProtoVFile file) {
+        entries.put(path, file);
+    }
+
+    synchronized void putMissing(final String path) {
+        entries.put(path, null);
+    }
+
+    /**
+     * a file created at path; if one is already cached there, it is what a lookup finds first, so it stays
+     */
+    synchronized void created(final String path, final ProtoVFile file) {
+        if (entries.get(path) == null) {
+            entries.put(path, file);
+        }
+    }
+
+    synchronized void remove(final String path) {
+        entries.remove(path);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,338 @@
+package vfs.impl.proto;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.collections.Cf;
+import vfs.exception.VFSException;
+import vfs.impl.core.BlockDevice;
+import vfs.impl.core.DataInput;
+import vfs.impl.core.DataOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chains of delimited {@link VFSModel.DirEntry} records, as linear dirs and the buckets of hashed dirs keep them,
+ * encoded by the {@link MetaCodec} of the vfs. A removed entry is not cut out of the chain: its record becomes
+ * a tombstone in place, its inode overwritten with {@link #TOMBSTONE} in as many bytes as the inode took.
+ * An added entry takes the place of a tombstone its record can be made the size of, else it is appended.
+ * So both write the one or two blocks holding the record.
+ * A chain left with more tombstones than entries is written out anew, which the removes before it pay for.
+ */
+class EntryRecords {
+    private static final Logger log = LoggerFactory.getLogger(EntryRecords.class);
+
+    /** inode of a removed entry; block 0 holds the root, no entry points to it */
+    static final int TOMBSTONE = 0;
+
+    private final BlockDevice device;
+    private final MetaCodec codec;
+
+    EntryRecords(final BlockDevice device, final MetaCodec codec) {
+        this.device = device;
+        this.codec = codec;
+    }
+
+    /**
+     * @param headed whether the records follow a delimited message of some other kind, see {@link Chain#getHeader()}
+     */
+    Chain read(final int startBlock, final boolean headed) {
+        final DataInput reader = device.openReader(startBlock);
+        try {
+            final Reader records = new Reader(reader.asStream());
+            byte[] header = null;
+            if (headed) {
+                final int length = records.next();
+                if (length >= 0) {
+                    header = Arrays.copyOf(records.buffer(), length);
+                }
+            }
+            final Chain out = new Chain(startBlock, header);
+            for (int length = records.next(); length >= 0; length = records.next()) {
+                final byte[] record = records.buffer();
+                final Slot slot = new Slot(records.payloadPos(), length, codec.inodeSize(record, length));
+                if (codec.inode(record, length) == TOMBSTONE) {
+                    out.tombstones.add(slot);
+                } else {
+                    out.entries.add(codec.decode(record, length));
+                    out.slots.add(slot);
+                }
+            }
+            return out;
+        } catch (IOException e) {
+            throw new VFSException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Looks for name by comparing it with the bytes of each record, only the entry found is decoded.
+     *
+     * @param headed as in {@link #read(int, boolean)}
+     * @return the entry named name, null if there is none
+     */
+    @Nullable
+    VFSModel.DirEntry find(final int startBlock, final boolean headed, final String name) {
+        final byte[] utf8 = name.getBytes(MetaCodec.UTF8);
+        final Cursor cursor = cursor(new int[]{startBlock}, headed);
+        while (cursor.next()) {
+            if (cursor.view().nameEquals(utf8)) {
+                return cursor.view().toEntry();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param chains read one after the other
+     * @param headed as in {@link #read(int, boolean)}, for each chain
+     */
+    Cursor cursor(final int[] chains, final boolean headed) {
+        return new Cursor(chains, headed);
+    }
+
+    /**
+     * @return whether an entry for inode was there
+     */
+    boolean remove(final Chain chain, final int inode) {
+        for (int i = 0; i < chain.entries.size(); i++) {
+            if (chain.entries.get(i).getInode() == inode) {
+                if (chain.tombstones.size() + 1 > chain.entries.size() - 1) {
+                    final List<VFSModel.DirEntry> left = Cf.list(chain.entries);
+                    left.remove(i);
+                    rewrite(chain, left);
+                } else {
+                    final Slot slot = chain.slots.get(i);
+                    device.patch(chain.start, slot.pos + codec.inodePos(), codec.tombstone(slot.inodeSize));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(final Chain chain, final VFSModel.DirEntry entry) {
+        for (final Slot tombstone : chain.tombstones) {
+            final byte[] record = codec.encode(entry, tombstone.length);
+            if (record != null) {
+                device.patch(chain.start, tombstone.pos, record);
+                return;
+            }
+        }
+        final DataOutput appender = device.openAppender(chain.start);
+        try {
+            codec.writeDelimited(entry, appender.asStream());
+        } catch (IOException e) {
+            throw new VFSException(e);
+        } finally {
+            appender.close();
+        }
+    }
+
+    private void rewrite(final Chain chain, final List<VFSModel.DirEntry> entries) {
+        log.debug("compacting {}, {} entries left", chain.start, entries.size());
+        final DataOutput writer = device.openWriter(chain.start);
+        try {
+            final OutputStream out = writer.asStream();
+            if (chain.header != null) {
+                MetaCodec.writeDelimited(chain.header, out);
+            }
+            for (final VFSModel.DirEntry entry : entries) {
+                codec.writeDelimited(entry, out);
+            }
+        } catch (IOException e) {
+            throw new VFSException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * entries of a chain as read, with where their records are
+     */
+    static final class Chain {
+        private final int start;
+        @Nullable
+        private final byte[] header;
+        private final List<VFSModel.DirEntry> entries = Cf.newArrayList();
+        private final List<Slot> slots = Cf.newArrayList();
+        private final List<Slot> tombstones = Cf.newArrayList();
+
+        private Chain(final int start, @Nullable final byte[] header) {
+            this.start = start;
+            this.header = header;
+        }
+
+        /**
+         * @return the message heading the chain, null if it was read as not headed
+         */
+        @Nullable
+        byte[] getHeader() {
+            return header;
+        }
+
+        /**
+         * @return live entries, in chain order
+         */
+        List<VFSModel.DirEntry> getEntries() {
+            return entries;
+        }
+
+        int getTombstoneCnt() {
+            return tombstones.size();
+        }
+    }
+
+    /**
+     * Live entries of some chains, one {@link EntryView} moved along them. A chain is read whole into a buffer
+     * of the cursor when the cursor gets to it, so entries removed from it meanwhile do not upset the cursor.
+     */
+    final class Cursor {
+        private final int[] chains;
+        private final boolean headed;
+        private final EntryView view = new EntryView(codec);
+        private int chain = -1;
+        private byte[] bytes = new byte[4096];
+        private Reader records;
+
+        private Cursor(final int[] chains, final boolean headed) {
+            this.chains = chains;
+            this.headed = headed;
+        }
+
+        /**
+         * @return whether there was another live entry, which {@link #view()} is on now
+         */
+        boolean next() {
+            try {
+                while (true) {
+                    if (records == null) {
+                        if (chain + 1 >= chains.length) {
+                            chain = chains.length;
+                            return false;
+                        }
+                        final int size = readChain(chains[++chain]);
+                        records = new Reader(new ByteArrayInputStream(bytes, 0, size));
+                        if (headed) {
+                            records.next();
+                        }
+                    }
+                    final int length = records.next();
+                    if (length < 0) {
+                        records = null;
+                    } else if (codec.inode(records.buffer(), length) != TOMBSTONE) {
+                        view.wrap(records.buffer(), length);
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                throw new VFSException(e);
+            }
+        }
+
+        EntryView view() {
+            return view;
+        }
+
+        /**
+         * @return bytes of the chain, now at the start of the buffer
+         */
+        private int readChain(final int start) throws IOException {
+            final DataInput reader = device.openReader(start);
+            try {
+                final InputStream in = reader.asStream();
+                int size = 0;
+                for (int n = in.read(bytes, 0, bytes.length); n > 0; n = in.read(bytes, size, bytes.length - size)) {
+                    size += n;
+                    if (size == bytes.length) {
+                        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    }
+                }
+                return size;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static final class Slot {
+        /** of the record payload, from the start of the chain */
+        private final long pos;
+        private final int length;
+        private final int inodeSize;
+
+        private Slot(final long pos, final int length, final int inodeSize) {
+            this.pos = pos;
+            this.length = length;
+            this.inodeSize = inodeSize;
+        }
+    }
+
+    /**
+     * splits a stream into the payloads of the delimited records it holds, keeping count of where they are;
+     * a payload is read into a buffer of the reader, which the next one overwrites
+     */
+    static final class Reader {
+        private final InputStream input;
+        private byte[] buffer = new byte[64];
+        private long pos;
+        private long payloadPos;
+
+        Reader(final InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * @return length of the payload of the next record, now at the start of {@link #buffer()}; -1 past the last one
+         */
+        int next() throws IOException {
+            int length = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = input.read();
+                if (b < 0) {
+                    if (shift == 0) {
+                        return -1;
+                    }
+                    throw new EOFException("record length cut short at " + pos);
+                }
+                pos++;
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            payloadPos = pos;
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            int read = 0;
+            while (read < length) {
+                final int n = input.read(buffer, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("record at " + payloadPos + " cut short");
+                }
+                read += n;
+            }
+            pos += length;
+            return length;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * @return where the payload last read by {@link #next()} starts
+         */
+        long payloadPos() {
+            return payloadPos;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package vfs.impl.proto;
+
+import vfs.exception.VFSException;
+
+import java.io.IOException;
+
+/**
+ * A dir entry looked at in the buffer its record was read into, without decoding it to a {@link VFSModel.DirEntry}.
+ * A flyweight: {@link EntryRecords.Cursor} moves it from record to record, so what it tells holds until the next move.
+ */
+final class EntryView {
+    private final MetaCodec codec;
+    private byte[] record;
+    private int length;
+
+    EntryView(final MetaCodec codec) {
+        this.codec = codec;
+    }
+
+    void wrap(final byte[] record, final int length) {
+        this.record = record;
+        this.length = length;
+    }
+
+    int getInode() {
+        return codec.inode(record, length);
+    }
+
+    String getName() {
+        return codec.name(record, length);
+    }
+
+    /**
+     * @param name utf-8 bytes of the name
+     */
+    boolean nameEquals(final byte[] name) {
+        return codec.nameEquals(record, length, name);
+    }
+
+    boolean hasFlags() {
+        return codec.hasFlags(record, length);
+    }
+
+    int getFlags() {
+        return codec.flags(record, length);
+    }
+
+    int getGeneration() {
+        return codec.generation(record, length);
+    }
+
+    /**
+     * @return the entry decoded, to keep past the next move
+     */
+    VFSModel.DirEntry toEntry() {
+        try {
+            return codec.decode(record, length);
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+    }
+}
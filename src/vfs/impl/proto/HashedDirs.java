@@ -0,0 +1,346 @@
+package vfs.impl.proto;
+
+import com.google.protobuf.ByteString;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.collections.Cf;
+import util.collections.Cu;
+import vfs.exception.VFSException;
+import vfs.impl.core.BlockAllocator;
+import vfs.impl.core.BlockDevice;
+import vfs.impl.core.DataInput;
+import vfs.impl.core.DataOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Directories kept as extendible hash tables. The data chain of such a dir holds a {@link VFSModel.DirIndex}:
+ * 2^depth slots, each pointing to the chain of a bucket of entries whose name hashes end with the slot number.
+ * Several slots may share a bucket. A bucket that grows past {@link #BUCKET_ENTRIES} is split in two, and the table
+ * is doubled only when the bucket was already told apart by all of its bits, so lookups, inserts and deletes
+ * read and write one bucket, plus the table on a split. Tables of recently used dirs are kept decoded.
+ */
+class HashedDirs {
+    private static final Logger log = LoggerFactory.getLogger(HashedDirs.class);
+
+    static final int BUCKET_ENTRIES = 64;
+    /** names that keep hashing alike past this just make a bucket longer */
+    private static final int MAX_DEPTH = 24;
+    private static final int CACHED_TABLES = 64;
+
+    private final BlockDevice device;
+    private final BlockAllocator allocator;
+    private final MetaCodec codec;
+    private final EntryRecords records;
+    /** dir data block -> bucket of each slot */
+    private final Map<Integer, int[]> tables = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, int[]> eldest) {
+            return size() > CACHED_TABLES;
+        }
+    };
+
+    HashedDirs(final BlockDevice device, final BlockAllocator allocator, final MetaCodec codec) {
+        this.device = device;
+        this.allocator = allocator;
+        this.codec = codec;
+        this.records = new EntryRecords(device, codec);
+    }
+
+    static int hash(final String name) {
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+
+    /**
+     * writes entries as a hashed dir into the data chain starting with dataBlockNo, replacing what it held
+     */
+    void create(final int dataBlockNo, final List<VFSModel.DirEntry> entries) {
+        int depth = 0;
+        while ((entries.size() >> depth) > BUCKET_ENTRIES / 2 && depth < MAX_DEPTH) {
+            depth++;
+        }
+        final int[] slots = new int[1 << depth];
+        final List<List<VFSModel.DirEntry>> buckets = Cf.newArrayList();
+        for (int i = 0; i < slots.length; i++) {
+            buckets.add(Cf.<VFSModel.DirEntry>newArrayList());
+        }
+        for (final VFSModel.DirEntry entry : entries) {
+            buckets.get(hash(entry.getName()) & (slots.length - 1)).add(entry);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = newBucket(dataBlockNo);
+            writeBucket(slots[i], depth, buckets.get(i));
+        }
+        writeTable(dataBlockNo, slots);
+        log.debug("hashed {} entries of dir {} into {} buckets", new Object[]{entries.size(), dataBlockNo, slots.length});
+    }
+
+    @Nullable
+    VFSModel.DirEntry find(final int dataBlockNo, final String name) {
+        final int[] slots = table(dataBlockNo);
+        return records.find(slots[hash(name) & (slots.length - 1)], true, name);
+    }
+
+    List<VFSModel.DirEntry> list(final int dataBlockNo) {
+        return Cf.list(Cu.iterable(iterator(dataBlockNo)));
+    }
+
+    /**
+     * @return first block of each bucket, in the order of their first slots
+     */
+    int[] buckets(final int dataBlockNo) {
+        final int[] slots = table(dataBlockNo);
+        int cnt = 0;
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (isFirstSlot(slots, slot)) {
+                cnt++;
+            }
+        }
+        final int[] out = new int[cnt];
+        for (int slot = 0, i = 0; slot < slots.length; slot++) {
+            if (isFirstSlot(slots, slot)) {
+                out[i++] = slots[slot];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * entries bucket by bucket, a bucket is read when the iteration gets to it
+     */
+    Iterator<VFSModel.DirEntry> iterator(final int dataBlockNo) {
+        final int[] slots = table(dataBlockNo);
+        return new Iterator<VFSModel.DirEntry>() {
+            int slot = -1;
+            Iterator<VFSModel.DirEntry> bucket = Collections.<VFSModel.DirEntry>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!bucket.hasNext() && ++slot < slots.length) {
+                    if (isFirstSlot(slots, slot)) {
+                        bucket = readBucket(slots[slot], null).iterator();
+                    }
+                }
+                return bucket.hasNext();
+            }
+
+            @Override
+            public VFSModel.DirEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return bucket.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Up to limit entries in paging order: buckets by their first slot, entries of a bucket by name.
+     * A page starts right after startAfter, whether it is still there or not, so the bucket it hashes to
+     * tells where to go on. Only the buckets making up the page are read.
+     */
+    List<VFSModel.DirEntry> page(final int dataBlockNo, @Nullable final String startAfter, final int limit) {
+        final int[] slots = table(dataBlockNo);
+        final List<VFSModel.DirEntry> out = Cf.newArrayList();
+        int slot = 0;
+        if (startAfter != null) {
+            //the first slot of a bucket is its slot number cut down to the depth of the bucket
+            final int[] depth = new int[1];
+            final List<VFSModel.DirEntry> entries = readBucket(slots[hash(startAfter) & (slots.length - 1)], depth);
+            slot = hash(startAfter) & ((1 << depth[0]) - 1);
+            for (final VFSModel.DirEntry entry : sorted(entries)) {
+                if (entry.getName().compareTo(startAfter) > 0 && out.size() < limit) {
+                    out.add(entry);
+                }
+            }
+            slot++;
+        }
+        for (; slot < slots.length && out.size() < limit; slot++) {
+            if (isFirstSlot(slots, slot)) {
+                for (final VFSModel.DirEntry entry : sorted(readBucket(slots[slot], null))) {
+                    if (out.size() < limit) {
+                        out.add(entry);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The slots of a bucket of depth d are those equal to its first slot in their low d bits.
+     * Another slot of the same bucket below this one, if there is any, differs from it in the highest bit only.
+     */
+    private static boolean isFirstSlot(final int[] slots, final int slot) {
+        return slot == 0 || slots[slot & ~Integer.highestOneBit(slot)] != slots[slot];
+    }
+
+    private static List<VFSModel.DirEntry> sorted(final List<VFSModel.DirEntry> entries) {
+        Collections.sort(entries, new Comparator<VFSModel.DirEntry>() {
+            @Override
+            public int compare(final VFSModel.DirEntry a, final VFSModel.DirEntry b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return entries;
+    }
+
+    void add(final int dataBlockNo, final VFSModel.DirEntry entry) {
+        int[] slots = table(dataBlockNo);
+        final int hash = hash(entry.getName());
+        final int bucket = slots[hash & (slots.length - 1)];
+        final EntryRecords.Chain chain = records.read(bucket, true);
+        final int depth = depthOf(chain);
+        final List<VFSModel.DirEntry> entries = chain.getEntries();
+        if (entries.size() < BUCKET_ENTRIES || depth == MAX_DEPTH) {
+            records.add(chain, entry);
+            return;
+        }
+        entries.add(entry);
+        final int bit = 1 << depth;
+        if (depth == Integer.numberOfTrailingZeros(slots.length)) {
+            //no spare bit in the table for the bucket, double it; slot i + n starts out as slot i
+            final int[] doubled = new int[slots.length * 2];
+            System.arraycopy(slots, 0, doubled, 0, slots.length);
+            System.arraycopy(slots, 0, doubled, slots.length, slots.length);
+            slots = doubled;
+        }
+        final int sibling = newBucket(bucket);
+        final List<VFSModel.DirEntry> stay = Cf.newArrayList();
+        final List<VFSModel.DirEntry> move = Cf.newArrayList();
+        for (final VFSModel.DirEntry e : entries) {
+            ((hash(e.getName()) & bit) == 0 ? stay : move).add(e);
+        }
+        writeBucket(bucket, depth + 1, stay);
+        writeBucket(sibling, depth + 1, move);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == bucket && (i & bit) != 0) {
+                slots[i] = sibling;
+            }
+        }
+        writeTable(dataBlockNo, slots);
+        log.debug("split bucket {} of dir {}, table has {} slots", new Object[]{bucket, dataBlockNo, slots.length});
+    }
+
+    /**
+     * @return whether an entry for inode under that name was there
+     */
+    boolean remove(final int dataBlockNo, final String name, final int inode) {
+        final int[] slots = table(dataBlockNo);
+        return records.remove(records.read(slots[hash(name) & (slots.length - 1)], true), inode);
+    }
+
+    /**
+     * frees the buckets of a dir about to be deleted; its data chain is left to the caller
+     */
+    void free(final int dataBlockNo) {
+        final int[] slots = table(dataBlockNo);
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (isFirstSlot(slots, slot)) {
+                device.freeStartingWith(slots[slot]);
+            }
+        }
+        tables.remove(dataBlockNo);
+    }
+
+    private int newBucket(final int near) {
+        final int out = allocator.allocNextTo(near);
+        //a reused block still points to the chain it used to head
+        device.touch(out);
+        return out;
+    }
+
+    /**
+     * @param depth if not null, gets the depth of the bucket
+     */
+    private List<VFSModel.DirEntry> readBucket(final int bucket, @Nullable final int[] depth) {
+        final EntryRecords.Chain chain = records.read(bucket, true);
+        if (depth != null) {
+            depth[0] = depthOf(chain);
+        }
+        return chain.getEntries();
+    }
+
+    private static int depthOf(final EntryRecords.Chain bucket) {
+        try {
+            return VFSModel.Bucket.parseFrom(bucket.getHeader()).getDepth();
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
+    }
+
+    private void writeBucket(final int bucket, final int depth, final List<VFSModel.DirEntry> entries) {
+        final DataOutput writer = device.openWriter(bucket);
+        try {
+            final OutputStream out = writer.asStream();
+            VFSModel.Bucket.newBuilder().setDepth(depth).build().writeDelimitedTo(out);
+            for (final VFSModel.DirEntry entry : entries) {
+                codec.writeDelimited(entry, out);
+            }
+        } catch (IOException e) {
+            throw new VFSException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private int[] table(final int dataBlockNo) {
+        final int[] cached = tables.get(dataBlockNo);
+        if (cached != null) {
+            return cached;
+        }
+        final DataInput reader = device.openReader(dataBlockNo);
+        try {
+            final VFSModel.DirIndex index = VFSModel.DirIndex.parseDelimitedFrom(reader.asStream());
+            final ByteBuffer buckets = index.getBuckets().asReadOnlyByteBuffer();
+            final int[] out = new int[1 << index.getDepth()];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = buckets.getInt();
+            }
+            tables.put(dataBlockNo, out);
+            return out;
+        } catch (IOException e) {
+            throw new VFSException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void writeTable(final int dataBlockNo, final int[] slots) {
+        final ByteBuffer buckets = ByteBuffer.allocate(4 * slots.length);
+        for (final int bucket : slots) {
+            buckets.putInt(bucket);
+        }
+        buckets.flip();
+        final DataOutput writer = device.openWriter(dataBlockNo);
+        try {
+            VFSModel.DirIndex.newBuilder()
+                    .setDepth(Integer.numberOfTrailingZeros(slots.length))
+                    .setBuckets(ByteString.copyFrom(buckets))
+                    .build().writeDelimitedTo(writer.asStream());
+        } catch (IOException e) {
+            throw new VFSException(e);
+        } finally {
+            writer.close();
+        }
+        tables.put(dataBlockNo, slots);
+    }
+}
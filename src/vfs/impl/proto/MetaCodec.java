@@ -0,0 +1,514 @@
+package vfs.impl.proto;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import org.jetbrains.annotations.Nullable;
+import vfs.api.VFileSystemConfig;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * How nodes and dir entries are laid out in their records; a record is delimited by a varint length either way.
+ * Entries are looked at in the buffer their record was read into, so a dir scanned for a name decodes
+ * no more than the entry found. The format of a container is kept in its {@link VFSModel.SuperNode}.
+ */
+abstract class MetaCodec {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** the messages of {@link VFSModel}, which containers were written with before there was a choice */
+    static final MetaCodec PROTOBUF = new Protobuf();
+    /** fields at fixed offsets and length-prefixed utf-8 names */
+    static final MetaCodec FIXED = new Fixed();
+
+    static MetaCodec of(final VFileSystemConfig.Metadata metadata) {
+        switch (metadata) {
+            case PROTOBUF:
+                return PROTOBUF;
+            case FIXED:
+                return FIXED;
+            default:
+                throw new IllegalArgumentException("unsupported metadata " + metadata);
+        }
+    }
+
+    /**
+     * @param format as {@link #format()} gives it
+     */
+    static MetaCodec of(final int format) {
+        if (format == PROTOBUF.format()) {
+            return PROTOBUF;
+        }
+        if (format == FIXED.format()) {
+            return FIXED;
+        }
+        throw new IllegalArgumentException("unknown metadata format " + format);
+    }
+
+    /**
+     * @return the number the super node keeps for this format
+     */
+    abstract int format();
+
+    abstract void writeNode(VFSModel.Node node, OutputStream out) throws IOException;
+
+    /**
+     * @return node of the record in, null if in is empty
+     */
+    @Nullable
+    abstract VFSModel.Node readNode(InputStream in) throws IOException;
+
+    abstract byte[] encode(VFSModel.DirEntry entry);
+
+    /**
+     * @return entry encoded in exactly length bytes, for a record taking the place of a tombstone; null if it does not fit
+     */
+    @Nullable
+    abstract byte[] encode(VFSModel.DirEntry entry, int length);
+
+    abstract VFSModel.DirEntry decode(byte[] record, int length) throws IOException;
+
+    abstract int inode(byte[] record, int length);
+
+    /**
+     * @param name utf-8 bytes of the name
+     */
+    abstract boolean nameEquals(byte[] record, int length, byte[] name);
+
+    abstract String name(byte[] record, int length);
+
+    abstract boolean hasFlags(byte[] record, int length);
+
+    abstract int flags(byte[] record, int length);
+
+    /**
+     * @return generation of the entry, 0 if it has none
+     */
+    abstract int generation(byte[] record, int length);
+
+    /**
+     * @return where the inode starts in a record
+     */
+    abstract int inodePos();
+
+    abstract int inodeSize(byte[] record, int length);
+
+    /**
+     * @return {@link EntryRecords#TOMBSTONE} in inodeSize bytes, to overwrite the inode of a removed entry with
+     */
+    abstract byte[] tombstone(int inodeSize);
+
+    final void writeDelimited(final VFSModel.DirEntry entry, final OutputStream out) throws IOException {
+        writeDelimited(encode(entry), out);
+    }
+
+    static void writeDelimited(final byte[] record, final OutputStream out) throws IOException {
+        final CodedOutputStream coded = CodedOutputStream.newInstance(out);
+        coded.writeRawVarint32(record.length);
+        coded.writeRawBytes(record);
+        coded.flush();
+    }
+
+    private static byte[] readDelimited(final InputStream in) throws IOException {
+        final EntryRecords.Reader reader = new EntryRecords.Reader(in);
+        final int length = reader.next();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] out = new byte[length];
+        System.arraycopy(reader.buffer(), 0, out, 0, length);
+        return out;
+    }
+
+    /**
+     * value as a varint of exactly size bytes, high groups being empty ones as needed
+     */
+    static byte[] varint(final int value, final int size) {
+        final byte[] out = new byte[size];
+        final long bits = value & 0xFFFFFFFFL;
+        for (int i = 0; i < size; i++) {
+            final int group = (int) ((bits >>> Math.min(63, 7 * i)) & 0x7F);
+            out[i] = (byte) (i < size - 1 ? group | 0x80 : group);
+        }
+        return out;
+    }
+
+    /**
+     * the protobuf record of an entry made length bytes long by writing its inode, which comes first, in more bytes
+     */
+    static byte[] pad(final byte[] plain, final int inode, final int length) {
+        final int inodeSize = CodedOutputStream.computeRawVarint32Size(inode);
+        final int padded = inodeSize + length - plain.length;
+        final byte[] out = new byte[length];
+        out[0] = (byte) Protobuf.INODE_TAG;
+        System.arraycopy(varint(inode, padded), 0, out, 1, padded);
+        System.arraycopy(plain, 1 + inodeSize, out, 1 + padded, plain.length - 1 - inodeSize);
+        return out;
+    }
+
+    private static boolean regionEquals(final byte[] record, final int pos, final int length, final byte[] name) {
+        if (length != name.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (record[pos + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Protobuf extends MetaCodec {
+        private static final int INODE_TAG = 1 << 3;
+        private static final int NAME_FIELD = 2;
+        private static final int FLAGS_FIELD = 3;
+        private static final int GENERATION_FIELD = 4;
+        /** a varint may take up to that many bytes, whatever its value */
+        private static final int MAX_VARINT_SIZE = 10;
+
+        @Override
+        int format() {
+            return 0;
+        }
+
+        @Override
+        void writeNode(final VFSModel.Node node, final OutputStream out) throws IOException {
+            node.writeDelimitedTo(out);
+        }
+
+        @Override
+        VFSModel.Node readNode(final InputStream in) throws IOException {
+            return VFSModel.Node.parseDelimitedFrom(in);
+        }
+
+        @Override
+        byte[] encode(final VFSModel.DirEntry entry) {
+            return entry.toByteArray();
+        }
+
+        @Override
+        byte[] encode(final VFSModel.DirEntry entry, final int length) {
+            final byte[] plain = entry.toByteArray();
+            final int spare = MAX_VARINT_SIZE - CodedOutputStream.computeRawVarint32Size(entry.getInode());
+            if (length < plain.length || length - plain.length > spare) {
+                return null;
+            }
+            return pad(plain, entry.getInode(), length);
+        }
+
+        @Override
+        VFSModel.DirEntry decode(final byte[] record, final int length) throws IOException {
+            return VFSModel.DirEntry.newBuilder().mergeFrom(record, 0, length).build();
+        }
+
+        @Override
+        int inode(final byte[] record, final int length) {
+            checkInodeFirst(record);
+            return varintAt(record, 1);
+        }
+
+        @Override
+        boolean nameEquals(final byte[] record, final int length, final byte[] name) {
+            final int pos = fieldAt(record, length, NAME_FIELD);
+            return pos >= 0 && regionEquals(record, skipVarint(record, pos), varintAt(record, pos), name);
+        }
+
+        @Override
+        String name(final byte[] record, final int length) {
+            final int pos = fieldAt(record, length, NAME_FIELD);
+            if (pos < 0) {
+                throw new IllegalStateException("dir entry record has no name");
+            }
+            return new String(record, skipVarint(record, pos), varintAt(record, pos), UTF8);
+        }
+
+        @Override
+        boolean hasFlags(final byte[] record, final int length) {
+            return fieldAt(record, length, FLAGS_FIELD) >= 0;
+        }
+
+        @Override
+        int flags(final byte[] record, final int length) {
+            return varintAt(record, fieldAt(record, length, FLAGS_FIELD));
+        }
+
+        @Override
+        int generation(final byte[] record, final int length) {
+            final int pos = fieldAt(record, length, GENERATION_FIELD);
+            return pos < 0 ? 0 : varintAt(record, pos);
+        }
+
+        /**
+         * walks the fields, skipping all but the one asked for
+         *
+         * @return where the value of field starts, a length first for the name; -1 if the record does not have it
+         */
+        private static int fieldAt(final byte[] record, final int length, final int field) {
+            int i = 0;
+            while (i < length) {
+                final int tag = varintAt(record, i);
+                i = skipVarint(record, i);
+                if (tag >>> 3 == field) {
+                    return i;
+                }
+                switch (tag & 7) {
+                    case 0:
+                        i = skipVarint(record, i);
+                        break;
+                    case 1:
+                        i += 8;
+                        break;
+                    case 2:
+                        final int size = varintAt(record, i);
+                        i = skipVarint(record, i) + size;
+                        break;
+                    case 5:
+                        i += 4;
+                        break;
+                    default:
+                        throw new IllegalStateException("unexpected wire type in dir entry record: " + tag);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int inodePos() {
+            return 1;
+        }
+
+        @Override
+        int inodeSize(final byte[] record, final int length) {
+            checkInodeFirst(record);
+            return skipVarint(record, 1) - 1;
+        }
+
+        @Override
+        byte[] tombstone(final int inodeSize) {
+            return varint(EntryRecords.TOMBSTONE, inodeSize);
+        }
+
+        private static void checkInodeFirst(final byte[] record) {
+            if (record[0] != INODE_TAG) {
+                throw new IllegalStateException("dir entry record does not start with the inode");
+            }
+        }
+
+        private static int varintAt(final byte[] record, final int pos) {
+            int out = 0;
+            int shift = 0;
+            for (int i = pos; ; i++) {
+                if (shift < 32) {
+                    out |= (record[i] & 0x7F) << shift;
+                }
+                if ((record[i] & 0x80) == 0) {
+                    return out;
+                }
+                shift += 7;
+            }
+        }
+
+        private static int skipVarint(final byte[] record, final int pos) {
+            int i = pos;
+            while ((record[i] & 0x80) != 0) {
+                i++;
+            }
+            return i + 1;
+        }
+    }
+
+    /**
+     * Big-endian fields at fixed offsets. An entry is inode, flags, generation, a byte telling which of the optional
+     * fields are set, then the name; a record may be longer than that, as when it took the place of a longer one.
+     * A node is no, parentNo, flags, dataBlockNo, timestamp, size, generation, the set-fields byte, then name and checksum.
+     */
+    private static final class Fixed extends MetaCodec {
+        private static final int HAS_FLAGS = 1;
+        private static final int HAS_GENERATION = 2;
+        private static final int HAS_SIZE = 4;
+        private static final int HAS_CHECKSUM = 8;
+
+        private static final int ENTRY_INODE = 0;
+        private static final int ENTRY_FLAGS = 4;
+        private static final int ENTRY_GENERATION = 8;
+        private static final int ENTRY_SET = 12;
+        private static final int ENTRY_NAME = 13;
+        private static final int NODE_HEAD = 37;
+        private static final int MAX_NAME_SIZE = 0xFFFF;
+
+        @Override
+        int format() {
+            return 1;
+        }
+
+        @Override
+        void writeNode(final VFSModel.Node node, final OutputStream out) throws IOException {
+            final byte[] name = nameBytes(node.getName());
+            final ByteString checksum = node.getChecksum();
+            final ByteBuffer record = ByteBuffer.allocate(NODE_HEAD + 2 + name.length + 2 + checksum.size());
+            record.putInt(node.getNo())
+                    .putInt(node.getParentNo())
+                    .putInt(node.getFlags())
+                    .putInt(node.getDataBlockNo())
+                    .putLong(node.getTimestamp())
+                    .putLong(node.getSize())
+                    .putInt(node.getGeneration())
+                    .put((byte) ((node.hasSize() ? HAS_SIZE : 0)
+                            | (node.hasGeneration() ? HAS_GENERATION : 0)
+                            | (node.hasChecksum() ? HAS_CHECKSUM : 0)))
+                    .putShort((short) name.length)
+                    .put(name)
+                    .putShort((short) checksum.size());
+            checksum.copyTo(record);
+            writeDelimited(record.array(), out);
+        }
+
+        @Override
+        VFSModel.Node readNode(final InputStream in) throws IOException {
+            final byte[] bytes = readDelimited(in);
+            if (bytes == null) {
+                return null;
+            }
+            if (bytes.length < NODE_HEAD + 4) {
+                throw new EOFException("node record of " + bytes.length + " bytes is cut short");
+            }
+            final ByteBuffer record = ByteBuffer.wrap(bytes);
+            final VFSModel.Node.Builder out = VFSModel.Node.newBuilder()
+                    .setNo(record.getInt())
+                    .setParentNo(record.getInt())
+                    .setFlags(record.getInt())
+                    .setDataBlockNo(record.getInt())
+                    .setTimestamp(record.getLong());
+            final long size = record.getLong();
+            final int generation = record.getInt();
+            final int set = record.get();
+            if ((set & HAS_SIZE) != 0) {
+                out.setSize(size);
+            }
+            if ((set & HAS_GENERATION) != 0) {
+                out.setGeneration(generation);
+            }
+            final int nameSize = record.getShort() & 0xFFFF;
+            out.setName(new String(bytes, record.position(), nameSize, UTF8));
+            record.position(record.position() + nameSize);
+            final int checksumSize = record.getShort() & 0xFFFF;
+            if ((set & HAS_CHECKSUM) != 0) {
+                out.setChecksum(ByteString.copyFrom(bytes, record.position(), checksumSize));
+            }
+            return out.build();
+        }
+
+        @Override
+        byte[] encode(final VFSModel.DirEntry entry) {
+            final byte[] name = nameBytes(entry.getName());
+            return encode(entry, name, ENTRY_NAME + 2 + name.length);
+        }
+
+        @Override
+        byte[] encode(final VFSModel.DirEntry entry, final int length) {
+            final byte[] name = nameBytes(entry.getName());
+            if (length < ENTRY_NAME + 2 + name.length) {
+                return null;
+            }
+            return encode(entry, name, length);
+        }
+
+        private static byte[] encode(final VFSModel.DirEntry entry, final byte[] name, final int length) {
+            final ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(entry.getInode())
+                    .putInt(entry.getFlags())
+                    .putInt(entry.getGeneration())
+                    .put((byte) ((entry.hasFlags() ? HAS_FLAGS : 0) | (entry.hasGeneration() ? HAS_GENERATION : 0)))
+                    .putShort((short) name.length)
+                    .put(name);
+            return record.array();
+        }
+
+        @Override
+        VFSModel.DirEntry decode(final byte[] record, final int length) throws IOException {
+            final VFSModel.DirEntry.Builder out = VFSModel.DirEntry.newBuilder()
+                    .setInode(intAt(record, ENTRY_INODE))
+                    .setName(name(record, length));
+            final int set = record[ENTRY_SET];
+            if ((set & HAS_FLAGS) != 0) {
+                out.setFlags(intAt(record, ENTRY_FLAGS));
+            }
+            if ((set & HAS_GENERATION) != 0) {
+                out.setGeneration(intAt(record, ENTRY_GENERATION));
+            }
+            return out.build();
+        }
+
+        @Override
+        int inode(final byte[] record, final int length) {
+            return intAt(record, ENTRY_INODE);
+        }
+
+        @Override
+        boolean nameEquals(final byte[] record, final int length, final byte[] name) {
+            return regionEquals(record, ENTRY_NAME + 2, nameSize(record, length), name);
+        }
+
+        @Override
+        String name(final byte[] record, final int length) {
+            return new String(record, ENTRY_NAME + 2, nameSize(record, length), UTF8);
+        }
+
+        @Override
+        boolean hasFlags(final byte[] record, final int length) {
+            return (record[ENTRY_SET] & HAS_FLAGS) != 0;
+        }
+
+        @Override
+        int flags(final byte[] record, final int length) {
+            return intAt(record, ENTRY_FLAGS);
+        }
+
+        @Override
+        int generation(final byte[] record, final int length) {
+            return (record[ENTRY_SET] & HAS_GENERATION) != 0 ? intAt(record, ENTRY_GENERATION) : 0;
+        }
+
+        @Override
+        int inodePos() {
+            return ENTRY_INODE;
+        }
+
+        @Override
+        int inodeSize(final byte[] record, final int length) {
+            return 4;
+        }
+
+        @Override
+        byte[] tombstone(final int inodeSize) {
+            return ByteBuffer.allocate(inodeSize).putInt(EntryRecords.TOMBSTONE).array();
+        }
+
+        private static int nameSize(final byte[] record, final int length) {
+            if (length < ENTRY_NAME + 2) {
+                throw new IllegalStateException("dir entry record of " + length + " bytes is cut short");
+            }
+            final int out = ((record[ENTRY_NAME] & 0xFF) << 8) | (record[ENTRY_NAME + 1] & 0xFF);
+            if (ENTRY_NAME + 2 + out > length) {
+                throw new IllegalStateException("name of " + out + " bytes overruns its record of " + length);
+            }
+            return out;
+        }
+
+        private static byte[] nameBytes(final String name) {
+            final byte[] out = name.getBytes(UTF8);
+            if (out.length > MAX_NAME_SIZE) {
+                throw new IllegalArgumentException("name of " + out.length + " bytes is too long, at most " + MAX_NAME_SIZE + " allowed");
+            }
+            return out;
+        }
+
+        private static int intAt(final byte[] record, final int pos) {
+            return (record[pos] << 24) | ((record[pos + 1] & 0xFF) << 16) | ((record[pos + 2] & 0xFF) << 8) | (record[pos + 3] & 0xFF);
+        }
+    }
+}
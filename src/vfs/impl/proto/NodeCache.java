@@ -0,0 +1,56 @@
+package vfs.impl.proto;
+
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU map from block number to the node parsed from it. Nodes are immutable, so they are handed out as they are.
+ * ProtoVFS puts every node it writes and removes the nodes it frees, so a cached node is the one on the device.
+ */
+@ThreadSafe
+class NodeCache {
+
+    private final LinkedHashMap<Integer, VFSModel.Node> nodes;
+
+    private long hits;
+    private long misses;
+
+    NodeCache(final int capacity) {
+        this.nodes = new LinkedHashMap<Integer, VFSModel.Node>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, VFSModel.Node> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Nullable
+    synchronized VFSModel.Node get(final int nodeNo) {
+        final VFSModel.Node out = nodes.get(nodeNo);
+        if (out != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return out;
+    }
+
+    synchronized void put(final VFSModel.Node node) {
+        nodes.put(node.getNo(), node);
+    }
+
+    synchronized void remove(final int nodeNo) {
+        nodes.remove(nodeNo);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -4,6 +4,7 @@ final class NodeFlags {
 
     private static final int IS_DIR = 1 << 31; //else file
     private static final int IS_ZIP = 1 << 30;
+    private static final int IS_HASHED = 1 << 29; //dir entries are in a hash table rather than a list
 
     private final int value;
 
@@ -35,6 +36,14 @@ final class NodeFlags {
         return (value & IS_ZIP) != 0;
     }
 
+    boolean isHashed() {
+        return (value & IS_HASHED) != 0;
+    }
+
+    NodeFlags withHashed() {
+        return new NodeFlags(value | IS_HASHED);
+    }
+
     int asIntValue() {
         return value;
     }
@@ -10,35 +10,58 @@ import vfs.api.VFileSystem;
 import vfs.api.VFileSystemConfig;
 import vfs.exception.VFSException;
 import vfs.exception.VFileNotFoundException;
-import vfs.impl.core.BlockAllocator;
 import vfs.impl.core.BlockDevice;
 import vfs.impl.core.DataInput;
 import vfs.impl.core.DataOutput;
+import vfs.impl.core.PersistentAllocator;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class ProtoVFS implements VFileSystem {
 
     private static final Logger log = LoggerFactory.getLogger(ProtoVFS.class);
 
     private static final int ROOT_BLOCK_NO = 0;
+    private static final int DENTRY_CACHE_SIZE = 4096;
+    private static final int NODE_CACHE_SIZE = 4096;
+    /** a dir whose list of entries outgrows this many blocks is turned into a hashed one */
+    static final int LINEAR_DIR_MAX_BLOCKS = 4;
 
     private final BlockDevice device;
-    private final BlockAllocator allocator;
+    private final PersistentAllocator allocator;
     private final ProtoFileManager fm;
     private final VFileSystemConfig cfg;
+    private final DentryCache dentries = new DentryCache(DENTRY_CACHE_SIZE);
+    private final NodeCache nodes = new NodeCache(NODE_CACHE_SIZE);
+    private final HashedDirs hashedDirs;
+    private final EntryRecords records;
+    private final MetaCodec codec;
+    /** seeded at random, so that generations stay apart from those of earlier mounts with high probability */
+    private final AtomicInteger generations = new AtomicInteger(new Random().nextInt());
 
     private final String rootName;
 
-    ProtoVFS(final BlockDevice device, final BlockAllocator allocator, final VFileSystemConfig cfg) {
+    /**
+     * @param codec what the metadata of the container is encoded with
+     */
+    ProtoVFS(final BlockDevice device, final PersistentAllocator allocator, final VFileSystemConfig cfg, final MetaCodec codec) {
         this.device = device;
         this.allocator = allocator;
         this.cfg = cfg;
+        this.codec = codec;
         this.rootName = cfg.getSeparator();
+        this.hashedDirs = new HashedDirs(device, allocator, codec);
+        this.records = new EntryRecords(device, codec);
         //noinspection ThisEscapedInObjectConstruction
         this.fm = new ProtoFileManager(this); //this escapes only locally to trusted code. so don't bother.
     }
@@ -47,6 +70,7 @@ class ProtoVFS implements VFileSystem {
         final int rootNo = allocator.allocAnywhere(1);
         final int dataNo = allocator.allocNextTo(rootNo);
         assert rootNo == 0;
+        device.touch(rootNo);
         final DataOutput writer = device.openWriter(rootNo);
         try {
             final VFSModel.Node node = VFSModel.Node.newBuilder()
@@ -58,7 +82,9 @@ class ProtoVFS implements VFileSystem {
                     .setTimestamp(ts)
                     .build();
             try {
-                node.writeDelimitedTo(writer.asStream());
+                codec.writeNode(node, writer.asStream());
+                superNode(false).writeDelimitedTo(writer.asStream());
+                nodes.put(node);
                 device.touch(dataNo);
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -68,71 +94,347 @@ class ProtoVFS implements VFileSystem {
         }
     }
 
-    private ProtoVFile resolve(final int fileNo, final ProtoVFile parent) {
-        return doReadFileFromDevice(fileNo, parent);
+    /**
+     * block 0 holds the root node followed by the super node; null for containers written before there was one.
+     * The root is skipped as a record of any format, the super node tells which.
+     */
+    @Nullable
+    static VFSModel.SuperNode readSuperNode(final BlockDevice device) {
+        final InputStream is = device.openReader(ROOT_BLOCK_NO).asStream();
+        try {
+            new EntryRecords.Reader(is).next();
+            return VFSModel.SuperNode.parseDelimitedFrom(is);
+        } catch (IOException e) {
+            throw new VFSException(e);
+        }
     }
 
-    @Override
-    public ProtoVFile getRoot() {
-        final InputStream is = device.openReader(ROOT_BLOCK_NO).asStream();
+    private VFSModel.SuperNode superNode(final boolean clean) {
+        final VFSModel.SuperNode.Builder out = VFSModel.SuperNode.newBuilder()
+                .setBlockSize(cfg.getBlockSize())
+                .setClean(clean)
+                .setMetaFormat(codec.format());
+        if (allocator.getRegionStart() >= 0) {
+            out.setBitmapBlockNo(allocator.getRegionStart()).setBitmapBlockCnt(allocator.getRegionBlocks());
+        }
+        return out.build();
+    }
+
+    private void writeHead(final boolean clean) {
+        writeHead(readNode(ROOT_BLOCK_NO), clean);
+    }
+
+    private void writeHead(final VFSModel.Node root, final boolean clean) {
+        final DataOutput writer = device.openWriter(ROOT_BLOCK_NO);
         try {
-            final VFSModel.Node rootNode = VFSModel.Node.parseDelimitedFrom(is);
-            return buildFile(rootNode, null);
+            codec.writeNode(root, writer.asStream());
+            superNode(clean).writeDelimitedTo(writer.asStream());
+            nodes.put(root);
         } catch (IOException e) {
             throw new VFSException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * marks the container as in use, so that a crash before {@link #close()} makes the next open rebuild the bitmap
+     */
+    void mount() {
+        writeHead(false);
+        device.sync();
+    }
+
+    private void persistBitmap(final boolean clean) {
+        boolean headOutdated = allocator.sync() || clean;
+        //writing the head may take blocks from the allocator, which dirties the bitmap again
+        while (headOutdated) {
+            writeHead(clean);
+            headOutdated = allocator.sync();
         }
     }
 
+    @Override
+    public ProtoVFile getRoot() {
+        final ProtoVFile cached = dentries.get(rootName);
+        if (cached != null) {
+            return cached;
+        }
+        final ProtoVFile root = buildFile(readNode(ROOT_BLOCK_NO), null);
+        dentries.put(root.getAbsolutePath(), root);
+        return root;
+    }
+
+    /**
+     * how many runs of consecutive blocks the data of file is stored in
+     */
+    int countExtents(final ProtoVFile file) {
+        return device.countExtents(file.getProtoNode().getDataBlockNo());
+    }
+
+    public void sync() throws VFSException {
+        persistBitmap(false);
+        device.sync();
+    }
+
     @Override
     public void close() throws VFSException {
+        persistBitmap(true);
         device.close();
     }
 
+    /**
+     * Children of file, read from the device as the iteration gets to them; every iterator starts over.
+     * Entries are looked at in place, nothing but the files handed out is built for them.
+     */
     Iterable<ProtoVFile> list(final ProtoVFile file) {
         if (!file.isDir()) {
             throw new IllegalArgumentException("is not a dir :" + file);
         }
-        final DataInput reader = device.openReader(file.getProtoNode().getDataBlockNo());
-        log.debug("data block for {} is {}", file, file.getProtoNode().getDataBlockNo());
-        try {
-            final InputStream input = reader.asStream();
-            final List<ProtoVFile> out = Cf.newLinkedList();
-            final VFSModel.DirEntry.Builder nextEntry = VFSModel.DirEntry.newBuilder();
-            while (nextEntry.mergeDelimitedFrom(input)) {
-                final VFSModel.DirEntry readEntry = nextEntry.build();
-                log.debug("read entry {}", readEntry);
-                out.add(getFile(readEntry, file));
-                nextEntry.clear();
+        return new Iterable<ProtoVFile>() {
+            @Override
+            public Iterator<ProtoVFile> iterator() {
+                final EntryRecords.Cursor entries = entries(file);
+                return new Iterator<ProtoVFile>() {
+                    boolean ahead;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (!ahead) {
+                            ahead = entries.next();
+                        }
+                        return ahead;
+                    }
+
+                    @Override
+                    public ProtoVFile next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        ahead = false;
+                        return getFile(entries.view(), file);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
             }
-            return out;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            reader.close();
+        };
+    }
+
+    /**
+     * Up to limit children of dir in paging order, starting right after the one named startAfter,
+     * or with the first one if it is null. Paging order is by name in a linear dir and by bucket, then name,
+     * in a hashed one. Entries added or removed between pages may be missed or, in a hashed dir, seen twice.
+     */
+    List<ProtoVFile> list(final ProtoVFile dir, @Nullable final String startAfter, final int limit) {
+        if (!dir.isDir()) {
+            throw new IllegalArgumentException("is not a dir :" + dir);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        if (limit == 0) {
+            return Cf.newArrayList();
+        }
+        final VFSModel.Node node = currentNode(dir);
+        final Collection<VFSModel.DirEntry> page;
+        if (new NodeFlags(node.getFlags()).isHashed()) {
+            page = hashedDirs.page(node.getDataBlockNo(), startAfter, limit);
+        } else {
+            //a linear dir is in no particular order, keep the limit lowest names past startAfter
+            final TreeMap<String, VFSModel.DirEntry> lowest = new TreeMap<String, VFSModel.DirEntry>();
+            final EntryRecords.Cursor entries = records.cursor(new int[]{node.getDataBlockNo()}, false);
+            while (entries.next()) {
+                final String name = entries.view().getName();
+                final boolean fits = lowest.size() < limit || name.compareTo(lowest.lastKey()) < 0;
+                if (fits && (startAfter == null || name.compareTo(startAfter) > 0)) {
+                    lowest.put(name, entries.view().toEntry());
+                    if (lowest.size() > limit) {
+                        lowest.pollLastEntry();
+                    }
+                }
+            }
+            page = lowest.values();
+        }
+        final List<ProtoVFile> out = Cf.newArrayList(page.size());
+        for (final VFSModel.DirEntry entry : page) {
+            out.add(getFile(entry, dir));
+        }
+        return out;
+    }
+
+    /**
+     * live entries of dir, bucket by bucket for a hashed one
+     */
+    private EntryRecords.Cursor entries(final ProtoVFile dir) {
+        final VFSModel.Node node = currentNode(dir);
+        if (new NodeFlags(node.getFlags()).isHashed()) {
+            return records.cursor(hashedDirs.buckets(node.getDataBlockNo()), true);
+        }
+        return records.cursor(new int[]{node.getDataBlockNo()}, false);
+    }
+
+    private List<VFSModel.DirEntry> readLinearEntries(final int dataBlockNo) {
+        final List<VFSModel.DirEntry> out = Cf.newArrayList();
+        final EntryRecords.Cursor entries = records.cursor(new int[]{dataBlockNo}, false);
+        while (entries.next()) {
+            out.add(entries.view().toEntry());
+        }
+        return out;
+    }
+
+    /**
+     * dir's node as it is stored now; a ProtoVFile kept around may predate the dir being hashed
+     */
+    private VFSModel.Node currentNode(final ProtoVFile dir) {
+        final ProtoVFile cached = dentries.get(dir.getAbsolutePath());
+        if (cached != null && cached.getNo() == dir.getNo()) {
+            return cached.getProtoNode();
+        }
+        return readNode(dir.getNo());
+    }
+
+    private void addEntry(final ProtoVFile dir, final VFSModel.DirEntry entry) {
+        final VFSModel.Node node = currentNode(dir);
+        final int dataBlockNo = node.getDataBlockNo();
+        if (new NodeFlags(node.getFlags()).isHashed()) {
+            hashedDirs.add(dataBlockNo, entry);
+            return;
+        }
+        records.add(records.read(dataBlockNo, false), entry);
+        if (device.countBlocks(dataBlockNo) > LINEAR_DIR_MAX_BLOCKS) {
+            hashDir(dir, node);
+        }
+    }
+
+    private void hashDir(final ProtoVFile dir, final VFSModel.Node node) {
+        hashedDirs.create(node.getDataBlockNo(), readLinearEntries(node.getDataBlockNo()));
+        final NodeFlags flags = new NodeFlags(node.getFlags()).withHashed();
+        final VFSModel.Node hashed = node.toBuilder().setFlags(flags.asIntValue()).build();
+        if (hashed.getNo() == ROOT_BLOCK_NO) {
+            writeHead(hashed, false);
+        } else {
+            final DataOutput writer = device.openWriter(hashed.getNo());
+            try {
+                writeNodeTo(hashed, writer);
+            } finally {
+                writer.close();
+            }
+            nodes.put(hashed);
+        }
+        dentries.put(dir.getAbsolutePath(), new ProtoVFile(this, dir.getName(), dir.getAbsolutePath(), flags, hashed));
+        log.debug("dir {} is hashed now", dir);
+    }
+
+    private void removeEntry(final ProtoVFile dir, final ProtoVFile child) {
+        final VFSModel.Node node = currentNode(dir);
+        final int childNo = child.getNo();
+        if (new NodeFlags(node.getFlags()).isHashed()) {
+            hashedDirs.remove(node.getDataBlockNo(), child.getName(), childNo);
+            return;
         }
+        records.remove(records.read(node.getDataBlockNo(), false), childNo);
+    }
+
+    /**
+     * @return child of dir with the given name, null if there is none; the answer is cached either way
+     */
+    @Nullable
+    ProtoVFile child(final ProtoVFile dir, final String name) {
+        if (!dir.isDir()) {
+            throw new IllegalArgumentException("is not a dir :" + dir);
+        }
+        final String path = buildAbsolutName(dir, name);
+        final ProtoVFile cached = dentries.get(path);
+        if (cached != null || dentries.isMissing(path)) {
+            return cached;
+        }
+        final VFSModel.Node node = currentNode(dir);
+        final VFSModel.DirEntry entry = new NodeFlags(node.getFlags()).isHashed()
+                ? hashedDirs.find(node.getDataBlockNo(), name)
+                : records.find(node.getDataBlockNo(), false, name);
+        if (entry == null) {
+            dentries.putMissing(path);
+            return null;
+        }
+        final ProtoVFile found = getFile(entry, dir);
+        dentries.put(path, found);
+        return found;
+    }
+
+    private ProtoVFile getFile(final EntryView entry, final ProtoVFile parent) {
+        if (!entry.hasFlags()) {
+            //entries written before they had flags
+            return doReadFileFromDevice(entry.getInode(), parent);
+        }
+        final String name = entry.getName();
+        return new ProtoVFile(this, name, buildAbsolutName(parent, name),
+                new NodeFlags(entry.getFlags()), entry.getInode(), entry.getGeneration());
     }
 
     private ProtoVFile getFile(final VFSModel.DirEntry entry, final ProtoVFile parent) {
-        return doReadFileFromDevice(entry.getInode(), parent);
+        if (!entry.hasFlags()) {
+            //entries written before they had flags
+            return doReadFileFromDevice(entry.getInode(), parent);
+        }
+        return new ProtoVFile(this, entry.getName(), buildAbsolutName(parent, entry.getName()),
+                new NodeFlags(entry.getFlags()), entry.getInode(), entry.getGeneration());
     }
 
+    /**
+     * node in block nodeNo, parsed once while it stays in the node cache
+     */
+    VFSModel.Node readNode(final int nodeNo) {
+        if (allocator.isFree(nodeNo)) {
+            throw new RuntimeException("node is free " + nodeNo);
+        }
+        final VFSModel.Node cached = nodes.get(nodeNo);
+        if (cached != null) {
+            return cached;
+        }
+        log.debug("reading node {}", nodeNo);
+        final DataInput reader = device.openReader(nodeNo);
+        try {
+            final VFSModel.Node node = doReadNodeFrom(reader);
+            assert node != null;
+            assert nodeNo == node.getNo();
+            nodes.put(node);
+            return node;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The parent is read from the block its child's node points to, not looked for down the path from the root.
+     * The child is checked to be still there first; rm leaves no dir with entries, so its parent is too.
+     */
     @Nullable
     ProtoVFile getParent(final ProtoVFile protoVFile) {
         log.debug("getParent({})", protoVFile);
-        final int parentNo = protoVFile.getProtoNode().getParentNo();
+        final ProtoVFile child = checked(protoVFile);
+        final int parentNo = child.getProtoNode().getParentNo();
         if (parentNo == -1) {
             return null;
         }
-        final String abs = protoVFile.getAbsolutePath();
+        if (parentNo == ROOT_BLOCK_NO) {
+            return getRoot();
+        }
+        final String abs = child.getAbsolutePath();
         final String parentPath = abs.substring(0, abs.lastIndexOf(cfg.getSeparatorChar()));
-        final ProtoVFile parent = resolve(parentPath);
-        if (parent == null) {
-            throw new VFileNotFoundException(parentPath);
+        final ProtoVFile cached = dentries.get(parentPath);
+        if (cached != null && cached.getNo() == parentNo) {
+            return cached;
         }
+        final VFSModel.Node node = readNode(parentNo);
+        final ProtoVFile parent = new ProtoVFile(this, node.getName(), parentPath, new NodeFlags(node.getFlags()), node);
         if (!parent.isDir()) {
             throw new AssertionError("not a dir : " + parent);
         }
-
+        dentries.put(parentPath, parent);
         return parent;
     }
 
@@ -143,77 +445,188 @@ class ProtoVFS implements VFileSystem {
 
     InputStream openInput(final ProtoVFile file) {
         assertIsFile(file);
-        final int fileNo = file.getProtoNode().getNo();
+        final int fileNo = file.getNo();
         if (allocator.isFree(fileNo)) {
             throw new VFileNotFoundException("not found: " + file.toString());
         }
-        final DataInput metaReader = device.openReader(fileNo);
-        final VFSModel.Node metaNode = doReadNodeFrom(metaReader);
+        final VFSModel.Node metaNode = readNode(fileNo);
         final int dataBlockNo = metaNode.getDataBlockNo();
+        final long size = metaNode.getSize();
         log.debug("data block for {} is {}", file.getAbsolutePath(), dataBlockNo);
+        final DataInput dataReader = device.openReader(dataBlockNo);
         try {
-            final DataInput dataReader = device.openReader(dataBlockNo);
-            try {
-                return new InputStream() {
-                    final InputStream delegate = dataReader.asStream();
+            return new InputStream() {
+                final InputStream delegate = dataReader.asStream();
+                long consumed;
+
+                @Override
+                public int read() throws IOException {
+                    final int out = delegate.read();
+                    if (out >= 0) {
+                        consumed++;
+                    }
+                    return out;
+                }
 
-                    @Override
-                    public int read() throws IOException {
-                        return delegate.read();
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int out = delegate.read(b, off, len);
+                    if (out > 0) {
+                        consumed += out;
                     }
+                    return out;
+                }
 
-                    @Override
-                    public void close() throws IOException {
-                        delegate.close();
-                        dataReader.close();
+                @Override
+                public long skip(final long n) throws IOException {
+                    final long out = delegate.skip(n);
+                    consumed += out;
+                    return out;
+                }
+
+                /**
+                 * the rest of the file as its node tells, so readers can size their buffers once
+                 */
+                @Override
+                public int available() throws IOException {
+                    if (size > consumed) {
+                        return (int) Math.min(Integer.MAX_VALUE, size - consumed);
                     }
-                };
-            } finally {
-                dataReader.close();
-            }
+                    return delegate.available();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    delegate.close();
+                    dataReader.close();
+                }
+            };
         } finally {
-            metaReader.close();
+            dataReader.close();
         }
     }
 
     OutputStream openOutput(final ProtoVFile file) {
         assertIsFile(file);
-        if (allocator.isFree(file.getProtoNode().getNo())) {
+        if (allocator.isFree(file.getNo())) {
             throw new VFileNotFoundException("not found: " + file.toString());
         }
 
-        return device.openWriter(file.getProtoNode().getDataBlockNo()).asStream();
+        final OutputStream delegate = device.openWriter(file.getProtoNode().getDataBlockNo()).asStream();
+        return new OutputStream() {
+            long written;
+            boolean closed;
+
+            @Override
+            public void write(final int b) throws IOException {
+                delegate.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                delegate.write(b, off, len);
+                written += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                delegate.close();
+                written(file, written);
+            }
+        };
     }
 
-    private void assertIsFile(final ProtoVFile file) {
-        if (!file.isFile()) {
-            throw new IllegalArgumentException("is not a file :" + file);
+    /**
+     * keeps the size and modification time of file in its node, once a stream writing it is closed
+     */
+    private void written(final ProtoVFile file, final long size) {
+        final VFSModel.Node stored = storedNode(file);
+        if (stored == null) {
+            log.debug("{} was removed while being written", file);
+            return;
         }
+        rewriteNode(file, stored.toBuilder()
+                .setSize(size)
+                .setTimestamp(System.currentTimeMillis())
+                .build());
     }
 
-    ProtoVFile doReadFileFromDevice(final int nodeNo, final ProtoVFile parent) {
-        log.debug("reading node {}", nodeNo);
-        if (allocator.isFree(nodeNo)) {
-            throw new RuntimeException("node is free " + nodeNo);
+    /**
+     * @return node of file as it is stored now, null if file was removed
+     */
+    @Nullable
+    private VFSModel.Node storedNode(final ProtoVFile file) {
+        if (allocator.isFree(file.getNo())) {
+            return null;
         }
-        synchronized (device) {
+        final VFSModel.Node node = readNode(file.getNo());
+        return node.getGeneration() == file.getGeneration() ? node : null;
+    }
 
-            final DataInput reader = device.openReader(nodeNo);
-            try {
-                final InputStream is = reader.asStream();
-                try {
-                    final VFSModel.Node node = VFSModel.Node.parseDelimitedFrom(is);
-                    assert node != null;
-                    assert nodeNo == node.getNo();
-
-                    return buildFile(node, parent);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            } finally {
-                reader.close();
+    private void rewriteNode(final ProtoVFile file, final VFSModel.Node node) {
+        final DataOutput writer = device.openWriter(node.getNo());
+        try {
+            writeNodeTo(node, writer);
+        } finally {
+            writer.close();
+        }
+        nodes.put(node);
+        dentries.put(file.getAbsolutePath(), new ProtoVFile(this, file.getName(), file.getAbsolutePath(), new NodeFlags(node.getFlags()), node));
+    }
+
+    /**
+     * @return bytes in file as its node has them, 0 for a dir
+     */
+    long length(final ProtoVFile file) {
+        final ProtoVFile current = checked(file);
+        if (!current.isFile()) {
+            return 0;
+        }
+        final VFSModel.Node node = current.getProtoNode();
+        if (node.getSize() == 0) {
+            //nodes written before sizes were kept say 0 whatever their data, the size counted is kept in the node
+            //so that the chain is walked once; for an empty file, one block read tells
+            final long size = device.countBytes(node.getDataBlockNo());
+            final VFSModel.Node stored = size > 0 ? storedNode(current) : null;
+            if (stored != null && stored.getSize() == 0) {
+                rewriteNode(current, stored.toBuilder().setSize(size).build());
             }
+            return size;
         }
+        return node.getSize();
+    }
+
+    long lastModified(final ProtoVFile file) {
+        return checked(file).getProtoNode().getTimestamp();
+    }
+
+    /**
+     * names are unique within a dir, which is what lets a name alone say where a page of its children ends
+     */
+    private void assertNoChild(final ProtoVFile dir, final String name) {
+        if (child(dir, name) != null) {
+            throw new IllegalArgumentException(dir + " already has a child named " + name);
+        }
+    }
+
+    private void assertIsFile(final ProtoVFile file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("is not a file :" + file);
+        }
+    }
+
+    ProtoVFile doReadFileFromDevice(final int nodeNo, final ProtoVFile parent) {
+        return buildFile(readNode(nodeNo), parent);
     }
 
     private ProtoVFile buildFile(final VFSModel.Node node, @Nullable final ProtoVFile parent) {
@@ -234,12 +647,13 @@ class ProtoVFS implements VFileSystem {
         if (!parentDir.isDir()) {
             throw new IllegalArgumentException(parentDir + " is not a dir");
         }
+        assertNoChild(parentDir, newFileName);
 
         final int newFileNo = allocator.allocAnywhere(1);
         final int dataBlockNo = allocator.allocNextTo(newFileNo);
         log.debug("allocated {} for header and {} for data", newFileNo, dataBlockNo);
 
-        final int parentNo = parentDir.getProtoNode().getNo();
+        final int parentNo = parentDir.getNo();
         if (log.isInfoEnabled()) {
             log.debug("parent fileNo is {}, new file fileNo is {}", parentNo, newFileNo);
         }
@@ -249,14 +663,17 @@ class ProtoVFS implements VFileSystem {
         final VFSModel.Node newNode = VFSModel.Node.newBuilder()
                 .setFlags(new NodeFlags(false, cfg.isDoCompress()).asIntValue())
                 .setNo(newFileNo)
-                .setParentNo(parentDir.getProtoNode().getNo())
+                .setParentNo(parentDir.getNo())
                 .setName(newFileName).setName(newFileName)
                 .setDataBlockNo(dataBlockNo)
                 .setTimestamp(System.currentTimeMillis())
                 .setChecksum(ByteString.EMPTY)
+                .setGeneration(nextGeneration())
                 .setSize(0).build();
 
         log.debug("writing data-node " + newNode + " to " + newFileNo);
+        //a reused block still points to the chain it used to head, which must not be freed once more
+        device.touch(newFileNo);
         final DataOutput writer = device.openWriter(newFileNo);
         try {
             writeNodeTo(newNode, writer);
@@ -264,22 +681,25 @@ class ProtoVFS implements VFileSystem {
         } finally {
             writer.close();
         }
-        final int parendDataNodeNo = parentDir.getProtoNode().getDataBlockNo();
-        log.debug("writing parent dir-entry to " + parendDataNodeNo);
-        final DataOutput toParentAppender = device.openAppender(parendDataNodeNo);
-        try {
-            final VFSModel.DirEntry newDirEntry = VFSModel.DirEntry.newBuilder().setInode(newFileNo).setName(newFileName).build();
-            newDirEntry.writeDelimitedTo(toParentAppender.asStream());
-        } catch (IOException e) {
-            throw new VFSException(e);
-        } finally {
-            toParentAppender.close();
-        }
-        return resolve(newFileNo, parentDir);
+        nodes.put(newNode);
+        log.debug("writing parent dir-entry to {}", parentDir);
+        addEntry(parentDir, VFSModel.DirEntry.newBuilder()
+                .setInode(newFileNo)
+                .setName(newFileName)
+                .setFlags(newNode.getFlags())
+                .setGeneration(newNode.getGeneration())
+                .build());
+        final ProtoVFile out = buildFile(newNode, parentDir);
+        dentries.created(out.getAbsolutePath(), out);
+        return out;
     }
 
     ProtoVFile resolve(String path) throws VFileNotFoundException {
         path = normalize(path);
+        final ProtoVFile cached = dentries.get(path);
+        if (cached != null) {
+            return cached;
+        }
         final StringTokenizer tkz = new StringTokenizer(path, cfg.getSeparator());
         ProtoVFile current = this.getRoot();
         while (tkz.hasMoreTokens()) {
@@ -341,7 +761,7 @@ class ProtoVFS implements VFileSystem {
 
     VFSModel.Node doReadNodeFrom(final DataInput reader) throws VFSException {
         try {
-            return VFSModel.Node.parseDelimitedFrom(reader.asStream());
+            return codec.readNode(reader.asStream());
         } catch (IOException e) {
             throw new VFSException(e);
         }
@@ -349,31 +769,13 @@ class ProtoVFS implements VFileSystem {
 
     DataOutput writeNodeTo(final VFSModel.Node node, final DataOutput writer) throws VFSException {
         try {
-            node.writeDelimitedTo(writer.asStream());
-            return writer;
-        } catch (IOException e) {
-            throw new VFSException(e);
-        }
-    }
-
-
-    DataOutput writeDirEntryTo(final VFSModel.DirEntry entry, final DataOutput writer) throws VFSException {
-        try {
-            entry.writeDelimitedTo(writer.asStream());
+            codec.writeNode(node, writer.asStream());
             return writer;
         } catch (IOException e) {
             throw new VFSException(e);
         }
     }
 
-    void writeDirEntryTo(final VFSModel.DirEntry entry, final OutputStream stream) throws VFSException {
-        try {
-            entry.writeDelimitedTo(stream);
-        } catch (IOException e) {
-            throw new VFSException(e);
-        }
-    }
-
 
     private ProtoVFile mkDir(final VFile parentDir, final String dirName) {
         return mkDir(resolve(parentDir), dirName);
@@ -384,38 +786,39 @@ class ProtoVFS implements VFileSystem {
         if (!parentDir.isDir()) {
             throw new IllegalArgumentException(parentDir + " is not a dir");
         }
+        assertNoChild(parentDir, dirName);
 
         final int blockForNewHead = allocator.allocAnywhere(1);
         final int blockForNewDirEntries = allocator.allocAnywhere(1);
         log.debug("head is {}, data for dir is {}", blockForNewHead, blockForNewDirEntries);
+        device.touch(blockForNewHead);
         final DataOutput dirWriter = device.openWriter(blockForNewHead);
         final NodeFlags flags = new NodeFlags(true, false);
         final VFSModel.Node dirNode = VFSModel.Node.newBuilder()
                 .setName(dirName)
                 .setDataBlockNo(blockForNewDirEntries)
-                .setParentNo(parentDir.getProtoNode().getNo())
+                .setParentNo(parentDir.getNo())
                 .setFlags(flags.asIntValue())
                 .setNo(blockForNewHead)
+                .setGeneration(nextGeneration())
                 .setTimestamp(System.currentTimeMillis()).build();
         try {
             writeNodeTo(dirNode, dirWriter);
         } finally {
             dirWriter.close();
         }
+        nodes.put(dirNode);
 
-        final DataOutput parentAppender = device.openAppender(parentDir.getProtoNode().getDataBlockNo());
-        try {
-            final VFSModel.DirEntry dirEntry = VFSModel.DirEntry.newBuilder()
-                    .setInode(blockForNewHead)
-                    .setName(dirName)
-                    .build();
-
-            writeDirEntryTo(dirEntry, parentAppender);
-        } finally {
-            parentAppender.close();
-        }
         device.touch(blockForNewDirEntries);
-        return new ProtoVFile(this, dirName, buildAbsolutName(parentDir, dirName), flags, dirNode);
+        addEntry(parentDir, VFSModel.DirEntry.newBuilder()
+                .setInode(blockForNewHead)
+                .setName(dirName)
+                .setFlags(flags.asIntValue())
+                .setGeneration(dirNode.getGeneration())
+                .build());
+        final ProtoVFile out = new ProtoVFile(this, dirName, buildAbsolutName(parentDir, dirName), flags, dirNode);
+        dentries.created(out.getAbsolutePath(), out);
+        return out;
     }
 
     private String buildAbsolutName(@Nullable final ProtoVFile parentDir, final String childName) {
@@ -467,9 +870,46 @@ class ProtoVFS implements VFileSystem {
     }
 
     ProtoVFile resolve(final VFile vfile) {
+        if (vfile instanceof ProtoVFile) {
+            return checked((ProtoVFile) vfile);
+        }
         return resolve(vfile.getAbsolutePath());
     }
 
+    /**
+     * Makes sure a file handed out before is still there, without walking down its path: the dentry cache
+     * holding it settles that, else its node block is read and must still hold its node, of the same generation.
+     *
+     * @return file, or what the dentry cache holds for it
+     */
+    ProtoVFile checked(final ProtoVFile file) throws VFileNotFoundException {
+        if (file.getNo() == ROOT_BLOCK_NO) {
+            return getRoot();
+        }
+        final ProtoVFile cached = dentries.get(file.getAbsolutePath());
+        if (cached != null && cached.getNo() == file.getNo() && cached.getGeneration() == file.getGeneration()) {
+            return cached;
+        }
+        if (allocator.isFree(file.getNo())) {
+            throw new VFileNotFoundException("not found: " + file);
+        }
+        final VFSModel.Node node = readNode(file.getNo());
+        if (node.getGeneration() != file.getGeneration() || !node.getName().equals(file.getName())) {
+            throw new VFileNotFoundException("not found: " + file);
+        }
+        final ProtoVFile out = new ProtoVFile(this, file.getName(), file.getAbsolutePath(), new NodeFlags(node.getFlags()), node);
+        dentries.put(out.getAbsolutePath(), out);
+        return out;
+    }
+
+    private int nextGeneration() {
+        int out;
+        do {
+            out = generations.incrementAndGet();
+        } while (out == 0); //left to nodes written before there were generations
+        return out;
+    }
+
     private boolean deleteChild(final ProtoVFile parent, final ProtoVFile child) {
         if (parent == null) {
             if (child.getName().equals(rootName)) {
@@ -478,33 +918,27 @@ class ProtoVFS implements VFileSystem {
                 throw new IllegalStateException("parent is null, but child is not root : " + child);
             }
         }
-        final Iterable<ProtoVFile> allChildren = list(parent);
-        final OutputStream parentDataStream = device.openWriter(parent.getProtoNode().getDataBlockNo()).asStream();
-        try {
-            for (final ProtoVFile anyChild : allChildren) {
-                if (anyChild.getProtoNode().getNo() != child.getProtoNode().getNo()) {
-                    final VFSModel.DirEntry entry = VFSModel.DirEntry.newBuilder()
-                            .setInode(anyChild.getProtoNode().getNo())
-                            .setName(anyChild.getProtoNode().getName()).build();
-                    writeDirEntryTo(entry, parentDataStream);
-                } else {
-                    log.debug("not writing '{}' as it's deleted ", child.getName());
-                }
-            }
-        } finally {
-            try {
-                parentDataStream.close();
-            } catch (IOException e) {
-                throw new VFSException(e);
-            }
+        removeEntry(parent, child);
+        if (child.isDir() && new NodeFlags(currentNode(child).getFlags()).isHashed()) {
+            hashedDirs.free(child.getProtoNode().getDataBlockNo());
         }
-
+        //not a negative entry: another entry of the same name, if any, is what the next lookup finds
+        dentries.remove(child.getAbsolutePath());
         final VFSModel.Node childProto = child.getProtoNode();
+        nodes.remove(childProto.getNo());
         device.freeStartingWith(childProto.getNo());
         device.freeStartingWith(childProto.getDataBlockNo());
         return true;
     }
 
+    DentryCache getDentryCache() {
+        return dentries;
+    }
+
+    NodeCache getNodeCache() {
+        return nodes;
+    }
+
     String getSeparator() {
         return cfg.getSeparator();
     }
@@ -1,5 +1,8 @@
 package vfs.impl.proto;
 
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import vfs.api.VFileSystemConfig;
 import vfs.api.VFileSystemFactory;
 import vfs.exception.VFSCorruptException;
@@ -7,41 +10,51 @@ import vfs.exception.VFSException;
 import vfs.impl.core.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.BitSet;
 
 public class ProtoVFSFactory implements VFileSystemFactory {
+    private static final Logger log = LoggerFactory.getLogger(ProtoVFSFactory.class);
 
     @Override
     public ProtoVFS open(final File target, final VFileSystemConfig cfg) throws VFSCorruptException, VFSException {
-        final RandomAccessFile file;
-        try {
-            file = new RandomAccessFile(target, "rw");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        final FileDataStorage storage = openStorage(target, cfg);
+        final int blockSize = cfg.getBlockSize();
+        //nothing but block 0 can be trusted before the bitmap is known
+        final VFSModel.SuperNode superNode = ProtoVFS.readSuperNode(new BlockDevice(blockSize, storage, storage, new SimpleAllocator()));
+        final boolean hasBitmap = superNode != null && superNode.hasBitmapBlockNo();
+        BitSet bitset = null;
+        if (hasBitmap && superNode.getClean()) {
+            try {
+                bitset = PersistentAllocator.load(storage, blockSize, superNode.getBitmapBlockNo(), superNode.getBitmapBlockCnt());
+            } catch (VFSCorruptException e) {
+                log.warn("persisted bitmap of " + target + " is damaged, scanning the container");
+            }
+        } else {
+            log.info("{} was not closed properly, scanning the container", target);
+        }
+        final boolean loaded = bitset != null;
+        if (!loaded) {
+            bitset = storage.loadOccupanceBitMap(blockSize);
         }
-        final RandomAccessFileDataStorage storage = new RandomAccessFileDataStorage(file);
-        final BitSet bitset = storage.loadOccupanceBitMap(cfg.getBlockSize());
-        final BlockAllocator alloc = new SimpleAllocator(bitset);
-        final BlockDevice device = new BlockDevice(cfg.getBlockSize(), storage, storage, alloc);
-        final ProtoVFS vfs = new ProtoVFS(device, alloc, cfg);
+        //the container tells how its metadata is encoded, whatever cfg says
+        final MetaCodec codec = superNode == null ? MetaCodec.PROTOBUF : MetaCodec.of(superNode.getMetaFormat());
+        final ProtoVFS vfs = mount(storage, storage, storage, newAllocator(bitset, cfg), bitset.length() - 1, cfg, codec,
+                hasBitmap ? superNode.getBitmapBlockNo() : -1, hasBitmap ? superNode.getBitmapBlockCnt() : 0, loaded);
         if (vfs.getRoot() == null) {
             throw new VFSCorruptException();
         }
+        vfs.mount();
         return vfs;
     }
 
     @Override
     public ProtoVFS create(final ByteBuffer bb, final VFileSystemConfig cfg) {
-
         final ByteBufferDataStorage storage = new ByteBufferDataStorage(bb);
-        final BlockAllocator alloc = new SimpleAllocator(Integer.MAX_VALUE / cfg.getBlockSize());
-        final BlockDevice device = new BlockDevice(cfg.getBlockSize(), storage, storage, alloc);
-
-        final ProtoVFS vfs = new ProtoVFS(device, alloc, cfg);
+        final ProtoVFS vfs = mount(storage, storage, null, newAllocator(new BitSet(), cfg), -1, cfg,
+                MetaCodec.of(cfg.getMetadata()), -1, 0, false);
         vfs.writeRoot(0);
         return vfs;
     }
@@ -62,19 +75,71 @@ public class ProtoVFSFactory implements VFileSystemFactory {
             throw new RuntimeException("could not assure existance of directory " + parent + " to host a VFS file " + target.getName());
         }
 
-        final RandomAccessFileDataStorage bbStuff;
-        try {
-            bbStuff = new RandomAccessFileDataStorage(new RandomAccessFile(target, "rw"));
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
-        final BlockAllocator alloc = new SimpleAllocator(Integer.MAX_VALUE / cfg.getBlockSize());
-        final BlockDevice device = new BlockDevice(cfg.getBlockSize(), bbStuff, bbStuff, alloc);
-
-        final ProtoVFS vfs = new ProtoVFS(device, alloc, cfg);
+        final FileDataStorage bbStuff = openStorage(target, cfg);
+        final ProtoVFS vfs = mount(bbStuff, bbStuff, bbStuff, newAllocator(new BitSet(), cfg), -1, cfg,
+                MetaCodec.of(cfg.getMetadata()), -1, 0, false);
         vfs.writeRoot(0);
         return vfs;
     }
 
+    /**
+     * @param file storage of a file-backed vfs, the only kind that gets a block cache; null for in-memory ones
+     */
+    private static ProtoVFS mount(final ByteSink sink, final ByteSrc src, @Nullable final FileDataStorage file,
+                                  final BlockAllocator blockAlloc, final int highestInUse,
+                                  final VFileSystemConfig cfg, final MetaCodec codec,
+                                  final int bitmapStart, final int bitmapBlocks, final boolean bitmapLoaded) {
+        final ByteSink cachedSink;
+        final ByteSrc cachedSrc;
+        if (file == null || cfg.getCacheSize() == 0) {
+            cachedSink = sink;
+            cachedSrc = src;
+        } else {
+            final BlockCache cache = new BlockCache(sink, src, cfg.getBlockSize(), cfg.getCacheSize());
+            cachedSink = cache;
+            cachedSrc = cache;
+        }
+        final PersistentAllocator alloc = new PersistentAllocator(blockAlloc, cfg.getBlockSize(), cachedSink,
+                bitmapStart, bitmapBlocks, highestInUse, bitmapLoaded);
+        final BlockDevice device = new BlockDevice(cfg.getBlockSize(), cachedSink, cachedSrc, alloc);
+        return new ProtoVFS(device, alloc, cfg, codec);
+    }
+
+    private static BlockAllocator newAllocator(final BitSet inUse, final VFileSystemConfig cfg) {
+        final int blockCnt = Integer.MAX_VALUE / cfg.getBlockSize();
+        switch (cfg.getAllocator()) {
+            case SIMPLE:
+                return inUse.isEmpty() ? new SimpleAllocator() : new SimpleAllocator(inUse);
+            case EXTENT:
+                return new ExtentAllocator(inUse, blockCnt);
+            case HIERARCHICAL:
+                return new HierarchicalAllocator(inUse, blockCnt);
+            case COMPRESSED:
+                return new CompressedAllocator(inUse, blockCnt);
+            case CONCURRENT:
+                return new ConcurrentAllocator(inUse, blockCnt);
+            default:
+                throw new IllegalArgumentException("unsupported allocator " + cfg.getAllocator());
+        }
+    }
+
+    private static FileDataStorage openStorage(final File target, final VFileSystemConfig cfg) {
+        final RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(target, "rw");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        switch (cfg.getStorage()) {
+            case RANDOM_ACCESS_FILE:
+                return new RandomAccessFileDataStorage(file);
+            case MEMORY_MAPPED:
+                return new MappedFileDataStorage(file);
+            case FILE_CHANNEL:
+                return new FileChannelDataStorage(file);
+            default:
+                throw new IllegalArgumentException("unsupported storage " + cfg.getStorage());
+        }
+    }
 
 }
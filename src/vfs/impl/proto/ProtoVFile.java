@@ -2,13 +2,13 @@ package vfs.impl.proto;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import util.collections.Cu;
 import vfs.api.VFile;
 import vfs.exception.VFSException;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 
 
 final class ProtoVFile implements VFile {
@@ -16,15 +16,28 @@ final class ProtoVFile implements VFile {
     private final ProtoVFS fs;
     private final String name;
     private final NodeFlags flags;
-    private final VFSModel.Node protoNode;
+    private final int no;
+    /** with no, tells this file from the ones that held its node block before; 0 for nodes written before there were generations */
+    private final int generation;
+    /** read on first use for files that come from a dir listing */
+    private VFSModel.Node protoNode;
 
     private final String absolutePath;
 
     ProtoVFile(final ProtoVFS fs, final String name, final String absolutePath, final NodeFlags flags, final VFSModel.Node protoNode) {
+        this(fs, name, absolutePath, flags, protoNode.getNo(), protoNode.getGeneration());
+        this.protoNode = protoNode;
+    }
+
+    /**
+     * a file known from its dir entry only; flags are as the entry has them
+     */
+    ProtoVFile(final ProtoVFS fs, final String name, final String absolutePath, final NodeFlags flags, final int no, final int generation) {
         this.fs = fs;
         this.name = name;
         this.flags = flags;
-        this.protoNode = protoNode;
+        this.no = no;
+        this.generation = generation;
         this.absolutePath = absolutePath;
     }
 
@@ -49,12 +62,7 @@ final class ProtoVFile implements VFile {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException();
         }
-        for (final ProtoVFile candidate : fs.list(this)) {
-            if (candidate.getName().equals(name)) {
-                return candidate;
-            }
-        }
-        return null;
+        return fs.child(this, name);
     }
 
     @Override
@@ -69,40 +77,54 @@ final class ProtoVFile implements VFile {
 
     @NotNull
     @Override
+    @SuppressWarnings("unchecked")
     public Iterable<VFile> list() {
-        final Iterator<ProtoVFile> children = fs.list(fs.resolve(this.getAbsolutePath())).iterator();
-        return Cu.iterable(
-                new Iterator<VFile>() {
-                    @Override
-                    public boolean hasNext() {
-                        return children.hasNext();
-                    }
-
-                    @Override
-                    public ProtoVFile next() {
-                        return children.next();
-                    }
-
-                    @Override
-                    public void remove() {
-                        throw new UnsupportedOperationException();
-                    }
-                }
-        );
+        final Iterable<? extends VFile> children = fs.list(fs.checked(this));
+        return (Iterable<VFile>) children; //safe, read only
+    }
+
+    @NotNull
+    @Override
+    public List<VFile> list(@Nullable final String startAfter, final int limit) {
+        return new ArrayList<VFile>(fs.list(fs.checked(this), startAfter, limit));
     }
 
     VFSModel.Node getProtoNode() {
+        if (protoNode == null) {
+            protoNode = fs.readNode(no);
+        }
         return protoNode;
     }
 
+    /**
+     * block of the node, known without reading it
+     */
+    int getNo() {
+        return no;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public long length() {
+        return fs.length(this);
+    }
+
+    @Override
+    public long lastModified() {
+        return fs.lastModified(this);
+    }
+
     @Override
     public InputStream openFileInput() throws VFSException {
-        return fs.openInput(fs.resolve(this.getAbsolutePath()));
+        return fs.openInput(fs.checked(this));
     }
 
     @Override
     public OutputStream openFileOutput() throws VFSException {
-        return fs.openOutput(fs.resolve(this.getAbsolutePath()));
+        return fs.openOutput(fs.checked(this));
     }
 
     @Override
@@ -14,6 +14,22 @@ final class VFSModel {
     // required int32 blockSize = 1;
     boolean hasBlockSize();
     int getBlockSize();
+    
+    // optional bool clean = 2;
+    boolean hasClean();
+    boolean getClean();
+    
+    // optional int32 bitmapBlockNo = 3;
+    boolean hasBitmapBlockNo();
+    int getBitmapBlockNo();
+    
+    // optional int32 bitmapBlockCnt = 4;
+    boolean hasBitmapBlockCnt();
+    int getBitmapBlockCnt();
+    
+    // optional int32 metaFormat = 5;
+    boolean hasMetaFormat();
+    int getMetaFormat();
   }
   public static final class SuperNode extends
       com.google.protobuf.GeneratedMessage
@@ -54,8 +70,52 @@ final class VFSModel {
       return blockSize_;
     }
     
+    // optional bool clean = 2;
+    public static final int CLEAN_FIELD_NUMBER = 2;
+    private boolean clean_;
+    public boolean hasClean() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    public boolean getClean() {
+      return clean_;
+    }
+    
+    // optional int32 bitmapBlockNo = 3;
+    public static final int BITMAPBLOCKNO_FIELD_NUMBER = 3;
+    private int bitmapBlockNo_;
+    public boolean hasBitmapBlockNo() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    public int getBitmapBlockNo() {
+      return bitmapBlockNo_;
+    }
+    
+    // optional int32 bitmapBlockCnt = 4;
+    public static final int BITMAPBLOCKCNT_FIELD_NUMBER = 4;
+    private int bitmapBlockCnt_;
+    public boolean hasBitmapBlockCnt() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    public int getBitmapBlockCnt() {
+      return bitmapBlockCnt_;
+    }
+    
+    // optional int32 metaFormat = 5;
+    public static final int METAFORMAT_FIELD_NUMBER = 5;
+    private int metaFormat_;
+    public boolean hasMetaFormat() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    public int getMetaFormat() {
+      return metaFormat_;
+    }
+    
     private void initFields() {
       blockSize_ = 0;
+      clean_ = false;
+      bitmapBlockNo_ = 0;
+      bitmapBlockCnt_ = 0;
+      metaFormat_ = 0;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -76,6 +136,18 @@ final class VFSModel {
       if (((bitField0_ & 0x00000001) == 0x00000001)) {
         output.writeInt32(1, blockSize_);
       }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBool(2, clean_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeInt32(3, bitmapBlockNo_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeInt32(4, bitmapBlockCnt_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeInt32(5, metaFormat_);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -89,6 +161,22 @@ final class VFSModel {
         size += com.google.protobuf.CodedOutputStream
           .computeInt32Size(1, blockSize_);
       }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(2, clean_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(3, bitmapBlockNo_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(4, bitmapBlockCnt_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(5, metaFormat_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -215,6 +303,14 @@ final class VFSModel {
         super.clear();
         blockSize_ = 0;
         bitField0_ = (bitField0_ & ~0x00000001);
+        clean_ = false;
+        bitField0_ = (bitField0_ & ~0x00000002);
+        bitmapBlockNo_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        bitmapBlockCnt_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        metaFormat_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000010);
         return this;
       }
       
@@ -257,6 +353,22 @@ final class VFSModel {
           to_bitField0_ |= 0x00000001;
         }
         result.blockSize_ = blockSize_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.clean_ = clean_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.bitmapBlockNo_ = bitmapBlockNo_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.bitmapBlockCnt_ = bitmapBlockCnt_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.metaFormat_ = metaFormat_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -276,6 +388,18 @@ final class VFSModel {
         if (other.hasBlockSize()) {
           setBlockSize(other.getBlockSize());
         }
+        if (other.hasClean()) {
+          setClean(other.getClean());
+        }
+        if (other.hasBitmapBlockNo()) {
+          setBitmapBlockNo(other.getBitmapBlockNo());
+        }
+        if (other.hasBitmapBlockCnt()) {
+          setBitmapBlockCnt(other.getBitmapBlockCnt());
+        }
+        if (other.hasMetaFormat()) {
+          setMetaFormat(other.getMetaFormat());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -316,6 +440,26 @@ final class VFSModel {
               blockSize_ = input.readInt32();
               break;
             }
+            case 16: {
+              bitField0_ |= 0x00000002;
+              clean_ = input.readBool();
+              break;
+            }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              bitmapBlockNo_ = input.readInt32();
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              bitmapBlockCnt_ = input.readInt32();
+              break;
+            }
+            case 40: {
+              bitField0_ |= 0x00000010;
+              metaFormat_ = input.readInt32();
+              break;
+            }
           }
         }
       }
@@ -343,6 +487,90 @@ final class VFSModel {
         return this;
       }
       
+      // optional bool clean = 2;
+      private boolean clean_ ;
+      public boolean hasClean() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      public boolean getClean() {
+        return clean_;
+      }
+      public Builder setClean(boolean value) {
+        bitField0_ |= 0x00000002;
+        clean_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearClean() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        clean_ = false;
+        onChanged();
+        return this;
+      }
+      
+      // optional int32 bitmapBlockNo = 3;
+      private int bitmapBlockNo_ ;
+      public boolean hasBitmapBlockNo() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      public int getBitmapBlockNo() {
+        return bitmapBlockNo_;
+      }
+      public Builder setBitmapBlockNo(int value) {
+        bitField0_ |= 0x00000004;
+        bitmapBlockNo_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearBitmapBlockNo() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        bitmapBlockNo_ = 0;
+        onChanged();
+        return this;
+      }
+      
+      // optional int32 bitmapBlockCnt = 4;
+      private int bitmapBlockCnt_ ;
+      public boolean hasBitmapBlockCnt() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      public int getBitmapBlockCnt() {
+        return bitmapBlockCnt_;
+      }
+      public Builder setBitmapBlockCnt(int value) {
+        bitField0_ |= 0x00000008;
+        bitmapBlockCnt_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearBitmapBlockCnt() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        bitmapBlockCnt_ = 0;
+        onChanged();
+        return this;
+      }
+      
+      // optional int32 metaFormat = 5;
+      private int metaFormat_ ;
+      public boolean hasMetaFormat() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      public int getMetaFormat() {
+        return metaFormat_;
+      }
+      public Builder setMetaFormat(int value) {
+        bitField0_ |= 0x00000010;
+        metaFormat_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearMetaFormat() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        metaFormat_ = 0;
+        onChanged();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:vfs.impl.proto.SuperNode)
     }
     
@@ -364,6 +592,14 @@ final class VFSModel {
     // required string name = 2;
     boolean hasName();
     String getName();
+    
+    // optional int32 flags = 3;
+    boolean hasFlags();
+    int getFlags();
+    
+    // optional int32 generation = 4;
+    boolean hasGeneration();
+    int getGeneration();
   }
   public static final class DirEntry extends
       com.google.protobuf.GeneratedMessage
@@ -436,9 +672,31 @@ final class VFSModel {
       }
     }
     
+    // optional int32 flags = 3;
+    public static final int FLAGS_FIELD_NUMBER = 3;
+    private int flags_;
+    public boolean hasFlags() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    public int getFlags() {
+      return flags_;
+    }
+    
+    // optional int32 generation = 4;
+    public static final int GENERATION_FIELD_NUMBER = 4;
+    private int generation_;
+    public boolean hasGeneration() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    public int getGeneration() {
+      return generation_;
+    }
+    
     private void initFields() {
       inode_ = 0;
       name_ = "";
+      flags_ = 0;
+      generation_ = 0;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -466,6 +724,12 @@ final class VFSModel {
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
         output.writeBytes(2, getNameBytes());
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeInt32(3, flags_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeInt32(4, generation_);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -483,6 +747,14 @@ final class VFSModel {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(2, getNameBytes());
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(3, flags_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(4, generation_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -611,6 +883,10 @@ final class VFSModel {
         bitField0_ = (bitField0_ & ~0x00000001);
         name_ = "";
         bitField0_ = (bitField0_ & ~0x00000002);
+        flags_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        generation_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000008);
         return this;
       }
       
@@ -657,6 +933,14 @@ final class VFSModel {
           to_bitField0_ |= 0x00000002;
         }
         result.name_ = name_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.flags_ = flags_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.generation_ = generation_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -679,6 +963,12 @@ final class VFSModel {
         if (other.hasName()) {
           setName(other.getName());
         }
+        if (other.hasFlags()) {
+          setFlags(other.getFlags());
+        }
+        if (other.hasGeneration()) {
+          setGeneration(other.getGeneration());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -728,6 +1018,16 @@ final class VFSModel {
               name_ = input.readBytes();
               break;
             }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              flags_ = input.readInt32();
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              generation_ = input.readInt32();
+              break;
+            }
           }
         }
       }
@@ -791,6 +1091,48 @@ final class VFSModel {
         onChanged();
       }
       
+      // optional int32 flags = 3;
+      private int flags_ ;
+      public boolean hasFlags() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      public int getFlags() {
+        return flags_;
+      }
+      public Builder setFlags(int value) {
+        bitField0_ |= 0x00000004;
+        flags_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearFlags() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        flags_ = 0;
+        onChanged();
+        return this;
+      }
+      
+      // optional int32 generation = 4;
+      private int generation_ ;
+      public boolean hasGeneration() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      public int getGeneration() {
+        return generation_;
+      }
+      public Builder setGeneration(int value) {
+        bitField0_ |= 0x00000008;
+        generation_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearGeneration() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        generation_ = 0;
+        onChanged();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:vfs.impl.proto.DirEntry)
     }
     
@@ -836,6 +1178,10 @@ final class VFSModel {
     // optional int64 size = 8;
     boolean hasSize();
     long getSize();
+    
+    // optional int32 generation = 9;
+    boolean hasGeneration();
+    int getGeneration();
   }
   public static final class Node extends
       com.google.protobuf.GeneratedMessage
@@ -968,6 +1314,16 @@ final class VFSModel {
       return size_;
     }
     
+    // optional int32 generation = 9;
+    public static final int GENERATION_FIELD_NUMBER = 9;
+    private int generation_;
+    public boolean hasGeneration() {
+      return ((bitField0_ & 0x00000100) == 0x00000100);
+    }
+    public int getGeneration() {
+      return generation_;
+    }
+    
     private void initFields() {
       no_ = 0;
       parentNo_ = 0;
@@ -977,6 +1333,7 @@ final class VFSModel {
       checksum_ = com.google.protobuf.ByteString.EMPTY;
       timestamp_ = 0L;
       size_ = 0L;
+      generation_ = 0;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -1038,6 +1395,9 @@ final class VFSModel {
       if (((bitField0_ & 0x00000080) == 0x00000080)) {
         output.writeInt64(8, size_);
       }
+      if (((bitField0_ & 0x00000100) == 0x00000100)) {
+        output.writeInt32(9, generation_);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -1079,6 +1439,10 @@ final class VFSModel {
         size += com.google.protobuf.CodedOutputStream
           .computeInt64Size(8, size_);
       }
+      if (((bitField0_ & 0x00000100) == 0x00000100)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(9, generation_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -1219,6 +1583,8 @@ final class VFSModel {
         bitField0_ = (bitField0_ & ~0x00000040);
         size_ = 0L;
         bitField0_ = (bitField0_ & ~0x00000080);
+        generation_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000100);
         return this;
       }
       
@@ -1289,6 +1655,10 @@ final class VFSModel {
           to_bitField0_ |= 0x00000080;
         }
         result.size_ = size_;
+        if (((from_bitField0_ & 0x00000100) == 0x00000100)) {
+          to_bitField0_ |= 0x00000100;
+        }
+        result.generation_ = generation_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -1329,6 +1699,9 @@ final class VFSModel {
         if (other.hasSize()) {
           setSize(other.getSize());
         }
+        if (other.hasGeneration()) {
+          setGeneration(other.getGeneration());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -1424,6 +1797,11 @@ final class VFSModel {
               size_ = input.readInt64();
               break;
             }
+            case 72: {
+              bitField0_ |= 0x00000100;
+              generation_ = input.readInt32();
+              break;
+            }
           }
         }
       }
@@ -1616,6 +1994,27 @@ final class VFSModel {
         return this;
       }
       
+      // optional int32 generation = 9;
+      private int generation_ ;
+      public boolean hasGeneration() {
+        return ((bitField0_ & 0x00000100) == 0x00000100);
+      }
+      public int getGeneration() {
+        return generation_;
+      }
+      public Builder setGeneration(int value) {
+        bitField0_ |= 0x00000100;
+        generation_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearGeneration() {
+        bitField0_ = (bitField0_ & ~0x00000100);
+        generation_ = 0;
+        onChanged();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:vfs.impl.proto.Node)
     }
     
@@ -1627,49 +2026,824 @@ final class VFSModel {
     // @@protoc_insertion_point(class_scope:vfs.impl.proto.Node)
   }
   
-  private static com.google.protobuf.Descriptors.Descriptor
-    internal_static_vfs_impl_proto_SuperNode_descriptor;
-  private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-      internal_static_vfs_impl_proto_SuperNode_fieldAccessorTable;
-  private static com.google.protobuf.Descriptors.Descriptor
-    internal_static_vfs_impl_proto_DirEntry_descriptor;
-  private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-      internal_static_vfs_impl_proto_DirEntry_fieldAccessorTable;
-  private static com.google.protobuf.Descriptors.Descriptor
-    internal_static_vfs_impl_proto_Node_descriptor;
-  private static
-    com.google.protobuf.GeneratedMessage.FieldAccessorTable
-      internal_static_vfs_impl_proto_Node_fieldAccessorTable;
-  
-  public static com.google.protobuf.Descriptors.FileDescriptor
-      getDescriptor() {
-    return descriptor;
+  public interface DirIndexOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+    
+    // required int32 depth = 1;
+    boolean hasDepth();
+    int getDepth();
+    
+    // required bytes buckets = 2;
+    boolean hasBuckets();
+    com.google.protobuf.ByteString getBuckets();
   }
-  private static com.google.protobuf.Descriptors.FileDescriptor
-      descriptor;
-  static {
-    java.lang.String[] descriptorData = {
-      "\n\016VFSModel.proto\022\016vfs.impl.proto\"\036\n\tSupe" +
-      "rNode\022\021\n\tblockSize\030\001 \002(\005\"\'\n\010DirEntry\022\r\n\005" +
-      "inode\030\001 \002(\005\022\014\n\004name\030\002 \002(\t\"\211\001\n\004Node\022\n\n\002no" +
-      "\030\001 \002(\005\022\020\n\010parentNo\030\002 \002(\005\022\014\n\004name\030\003 \002(\t\022\r" +
-      "\n\005flags\030\004 \002(\005\022\023\n\013dataBlockNo\030\005 \002(\005\022\020\n\010ch" +
-      "ecksum\030\006 \001(\014\022\021\n\ttimestamp\030\007 \002(\003\022\014\n\004size\030" +
-      "\010 \001(\003"
-    };
-    com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
-      new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
-        public com.google.protobuf.ExtensionRegistry assignDescriptors(
-            com.google.protobuf.Descriptors.FileDescriptor root) {
-          descriptor = root;
+  public static final class DirIndex extends
+      com.google.protobuf.GeneratedMessage
+      implements DirIndexOrBuilder {
+    // Use DirIndex.newBuilder() to construct.
+    private DirIndex(Builder builder) {
+      super(builder);
+    }
+    private DirIndex(boolean noInit) {}
+    
+    private static final DirIndex defaultInstance;
+    public static DirIndex getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public DirIndex getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_DirIndex_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_DirIndex_fieldAccessorTable;
+    }
+    
+    private int bitField0_;
+    // required int32 depth = 1;
+    public static final int DEPTH_FIELD_NUMBER = 1;
+    private int depth_;
+    public boolean hasDepth() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    public int getDepth() {
+      return depth_;
+    }
+    
+    // required bytes buckets = 2;
+    public static final int BUCKETS_FIELD_NUMBER = 2;
+    private com.google.protobuf.ByteString buckets_;
+    public boolean hasBuckets() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    public com.google.protobuf.ByteString getBuckets() {
+      return buckets_;
+    }
+    
+    private void initFields() {
+      depth_ = 0;
+      buckets_ = com.google.protobuf.ByteString.EMPTY;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+      
+      if (!hasDepth()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      if (!hasBuckets()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeInt32(1, depth_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, buckets_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(1, depth_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, buckets_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+    
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      Builder builder = newBuilder();
+      if (builder.mergeDelimitedFrom(input)) {
+        return builder.buildParsed();
+      } else {
+        return null;
+      }
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      Builder builder = newBuilder();
+      if (builder.mergeDelimitedFrom(input, extensionRegistry)) {
+        return builder.buildParsed();
+      } else {
+        return null;
+      }
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.DirIndex parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(vfs.impl.proto.VFSModel.DirIndex prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements vfs.impl.proto.VFSModel.DirIndexOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_DirIndex_descriptor;
+      }
+      
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_DirIndex_fieldAccessorTable;
+      }
+      
+      // Construct using vfs.impl.proto.VFSModel.DirIndex.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+      
+      private Builder(BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+      
+      public Builder clear() {
+        super.clear();
+        depth_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        buckets_ = com.google.protobuf.ByteString.EMPTY;
+        bitField0_ = (bitField0_ & ~0x00000002);
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return vfs.impl.proto.VFSModel.DirIndex.getDescriptor();
+      }
+      
+      public vfs.impl.proto.VFSModel.DirIndex getDefaultInstanceForType() {
+        return vfs.impl.proto.VFSModel.DirIndex.getDefaultInstance();
+      }
+      
+      public vfs.impl.proto.VFSModel.DirIndex build() {
+        vfs.impl.proto.VFSModel.DirIndex result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+      
+      private vfs.impl.proto.VFSModel.DirIndex buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        vfs.impl.proto.VFSModel.DirIndex result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return result;
+      }
+      
+      public vfs.impl.proto.VFSModel.DirIndex buildPartial() {
+        vfs.impl.proto.VFSModel.DirIndex result = new vfs.impl.proto.VFSModel.DirIndex(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.depth_ = depth_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.buckets_ = buckets_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof vfs.impl.proto.VFSModel.DirIndex) {
+          return mergeFrom((vfs.impl.proto.VFSModel.DirIndex)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(vfs.impl.proto.VFSModel.DirIndex other) {
+        if (other == vfs.impl.proto.VFSModel.DirIndex.getDefaultInstance()) return this;
+        if (other.hasDepth()) {
+          setDepth(other.getDepth());
+        }
+        if (other.hasBuckets()) {
+          setBuckets(other.getBuckets());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public final boolean isInitialized() {
+        if (!hasDepth()) {
+          
+          return false;
+        }
+        if (!hasBuckets()) {
+          
+          return false;
+        }
+        return true;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              onChanged();
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                onChanged();
+                return this;
+              }
+              break;
+            }
+            case 8: {
+              bitField0_ |= 0x00000001;
+              depth_ = input.readInt32();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              buckets_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      }
+      
+      private int bitField0_;
+      
+      // required int32 depth = 1;
+      private int depth_ ;
+      public boolean hasDepth() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      public int getDepth() {
+        return depth_;
+      }
+      public Builder setDepth(int value) {
+        bitField0_ |= 0x00000001;
+        depth_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearDepth() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        depth_ = 0;
+        onChanged();
+        return this;
+      }
+      
+      // required bytes buckets = 2;
+      private com.google.protobuf.ByteString buckets_ = com.google.protobuf.ByteString.EMPTY;
+      public boolean hasBuckets() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      public com.google.protobuf.ByteString getBuckets() {
+        return buckets_;
+      }
+      public Builder setBuckets(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        buckets_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearBuckets() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        buckets_ = getDefaultInstance().getBuckets();
+        onChanged();
+        return this;
+      }
+      
+      // @@protoc_insertion_point(builder_scope:vfs.impl.proto.DirIndex)
+    }
+    
+    static {
+      defaultInstance = new DirIndex(true);
+      defaultInstance.initFields();
+    }
+    
+    // @@protoc_insertion_point(class_scope:vfs.impl.proto.DirIndex)
+  }
+  
+  public interface BucketOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+    
+    // required int32 depth = 1;
+    boolean hasDepth();
+    int getDepth();
+  }
+  public static final class Bucket extends
+      com.google.protobuf.GeneratedMessage
+      implements BucketOrBuilder {
+    // Use Bucket.newBuilder() to construct.
+    private Bucket(Builder builder) {
+      super(builder);
+    }
+    private Bucket(boolean noInit) {}
+    
+    private static final Bucket defaultInstance;
+    public static Bucket getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public Bucket getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_Bucket_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_Bucket_fieldAccessorTable;
+    }
+    
+    private int bitField0_;
+    // required int32 depth = 1;
+    public static final int DEPTH_FIELD_NUMBER = 1;
+    private int depth_;
+    public boolean hasDepth() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    public int getDepth() {
+      return depth_;
+    }
+    
+    private void initFields() {
+      depth_ = 0;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+      
+      if (!hasDepth()) {
+        memoizedIsInitialized = 0;
+        return false;
+      }
+      memoizedIsInitialized = 1;
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeInt32(1, depth_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(1, depth_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+    
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      Builder builder = newBuilder();
+      if (builder.mergeDelimitedFrom(input)) {
+        return builder.buildParsed();
+      } else {
+        return null;
+      }
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      Builder builder = newBuilder();
+      if (builder.mergeDelimitedFrom(input, extensionRegistry)) {
+        return builder.buildParsed();
+      } else {
+        return null;
+      }
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static vfs.impl.proto.VFSModel.Bucket parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(vfs.impl.proto.VFSModel.Bucket prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements vfs.impl.proto.VFSModel.BucketOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_Bucket_descriptor;
+      }
+      
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return vfs.impl.proto.VFSModel.internal_static_vfs_impl_proto_Bucket_fieldAccessorTable;
+      }
+      
+      // Construct using vfs.impl.proto.VFSModel.Bucket.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+      
+      private Builder(BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+      
+      public Builder clear() {
+        super.clear();
+        depth_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return vfs.impl.proto.VFSModel.Bucket.getDescriptor();
+      }
+      
+      public vfs.impl.proto.VFSModel.Bucket getDefaultInstanceForType() {
+        return vfs.impl.proto.VFSModel.Bucket.getDefaultInstance();
+      }
+      
+      public vfs.impl.proto.VFSModel.Bucket build() {
+        vfs.impl.proto.VFSModel.Bucket result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+      
+      private vfs.impl.proto.VFSModel.Bucket buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        vfs.impl.proto.VFSModel.Bucket result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return result;
+      }
+      
+      public vfs.impl.proto.VFSModel.Bucket buildPartial() {
+        vfs.impl.proto.VFSModel.Bucket result = new vfs.impl.proto.VFSModel.Bucket(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.depth_ = depth_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof vfs.impl.proto.VFSModel.Bucket) {
+          return mergeFrom((vfs.impl.proto.VFSModel.Bucket)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(vfs.impl.proto.VFSModel.Bucket other) {
+        if (other == vfs.impl.proto.VFSModel.Bucket.getDefaultInstance()) return this;
+        if (other.hasDepth()) {
+          setDepth(other.getDepth());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public final boolean isInitialized() {
+        if (!hasDepth()) {
+          
+          return false;
+        }
+        return true;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              onChanged();
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                onChanged();
+                return this;
+              }
+              break;
+            }
+            case 8: {
+              bitField0_ |= 0x00000001;
+              depth_ = input.readInt32();
+              break;
+            }
+          }
+        }
+      }
+      
+      private int bitField0_;
+      
+      // required int32 depth = 1;
+      private int depth_ ;
+      public boolean hasDepth() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      public int getDepth() {
+        return depth_;
+      }
+      public Builder setDepth(int value) {
+        bitField0_ |= 0x00000001;
+        depth_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearDepth() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        depth_ = 0;
+        onChanged();
+        return this;
+      }
+      
+      // @@protoc_insertion_point(builder_scope:vfs.impl.proto.Bucket)
+    }
+    
+    static {
+      defaultInstance = new Bucket(true);
+      defaultInstance.initFields();
+    }
+    
+    // @@protoc_insertion_point(class_scope:vfs.impl.proto.Bucket)
+  }
+  
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_vfs_impl_proto_SuperNode_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_vfs_impl_proto_SuperNode_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_vfs_impl_proto_DirEntry_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_vfs_impl_proto_DirEntry_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_vfs_impl_proto_Node_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_vfs_impl_proto_Node_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_vfs_impl_proto_DirIndex_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_vfs_impl_proto_DirIndex_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_vfs_impl_proto_Bucket_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_vfs_impl_proto_Bucket_fieldAccessorTable;
+  
+  public static com.google.protobuf.Descriptors.FileDescriptor
+      getDescriptor() {
+    return descriptor;
+  }
+  private static com.google.protobuf.Descriptors.FileDescriptor
+      descriptor;
+  static {
+    java.lang.String[] descriptorData = {
+      "\n\016VFSModel.proto\022\016vfs.impl.proto\"p\n\tSupe" +
+      "rNode\022\021\n\tblockSize\030\001 \002(\005\022\r\n\005clean\030\002 \001(\010\022" +
+      "\025\n\rbitmapBlockNo\030\003 \001(\005\022\026\n\016bitmapBlockCnt" +
+      "\030\004 \001(\005\022\022\n\nmetaFormat\030\005 \001(\005\"J\n\010DirEntry\022\r" +
+      "\n\005inode\030\001 \002(\005\022\014\n\004name\030\002 \002(\t\022\r\n\005flags\030\003 \001" +
+      "(\005\022\022\n\ngeneration\030\004 \001(\005\"\235\001\n\004Node\022\n\n\002no\030\001 " +
+      "\002(\005\022\020\n\010parentNo\030\002 \002(\005\022\014\n\004name\030\003 \002(\t\022\r\n\005f" +
+      "lags\030\004 \002(\005\022\023\n\013dataBlockNo\030\005 \002(\005\022\020\n\010check" +
+      "sum\030\006 \001(\014\022\021\n\ttimestamp\030\007 \002(\003\022\014\n\004size\030\010 \001" +
+      "(\003\022\022\n\ngeneration\030\t \001(\005\"*\n\010DirIndex\022\r\n\005de",
+      "pth\030\001 \002(\005\022\017\n\007buckets\030\002 \002(\014\"\027\n\006Bucket\022\r\n\005" +
+      "depth\030\001 \002(\005"
+    };
+    com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
+      new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
+        public com.google.protobuf.ExtensionRegistry assignDescriptors(
+            com.google.protobuf.Descriptors.FileDescriptor root) {
+          descriptor = root;
           internal_static_vfs_impl_proto_SuperNode_descriptor =
             getDescriptor().getMessageTypes().get(0);
           internal_static_vfs_impl_proto_SuperNode_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_vfs_impl_proto_SuperNode_descriptor,
-              new java.lang.String[] { "BlockSize", },
+              new java.lang.String[] { "BlockSize", "Clean", "BitmapBlockNo", "BitmapBlockCnt", "MetaFormat", },
               vfs.impl.proto.VFSModel.SuperNode.class,
               vfs.impl.proto.VFSModel.SuperNode.Builder.class);
           internal_static_vfs_impl_proto_DirEntry_descriptor =
@@ -1677,7 +2851,7 @@ final class VFSModel {
           internal_static_vfs_impl_proto_DirEntry_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_vfs_impl_proto_DirEntry_descriptor,
-              new java.lang.String[] { "Inode", "Name", },
+              new java.lang.String[] { "Inode", "Name", "Flags", "Generation", },
               vfs.impl.proto.VFSModel.DirEntry.class,
               vfs.impl.proto.VFSModel.DirEntry.Builder.class);
           internal_static_vfs_impl_proto_Node_descriptor =
@@ -1685,9 +2859,25 @@ final class VFSModel {
           internal_static_vfs_impl_proto_Node_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_vfs_impl_proto_Node_descriptor,
-              new java.lang.String[] { "No", "ParentNo", "Name", "Flags", "DataBlockNo", "Checksum", "Timestamp", "Size", },
+              new java.lang.String[] { "No", "ParentNo", "Name", "Flags", "DataBlockNo", "Checksum", "Timestamp", "Size", "Generation", },
               vfs.impl.proto.VFSModel.Node.class,
               vfs.impl.proto.VFSModel.Node.Builder.class);
+          internal_static_vfs_impl_proto_DirIndex_descriptor =
+            getDescriptor().getMessageTypes().get(3);
+          internal_static_vfs_impl_proto_DirIndex_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_vfs_impl_proto_DirIndex_descriptor,
+              new java.lang.String[] { "Depth", "Buckets", },
+              vfs.impl.proto.VFSModel.DirIndex.class,
+              vfs.impl.proto.VFSModel.DirIndex.Builder.class);
+          internal_static_vfs_impl_proto_Bucket_descriptor =
+            getDescriptor().getMessageTypes().get(4);
+          internal_static_vfs_impl_proto_Bucket_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_vfs_impl_proto_Bucket_descriptor,
+              new java.lang.String[] { "Depth", },
+              vfs.impl.proto.VFSModel.Bucket.class,
+              vfs.impl.proto.VFSModel.Bucket.Builder.class);
           return null;
         }
       };
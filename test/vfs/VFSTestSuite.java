@@ -1,11 +1,26 @@
 package vfs;
 
 import junit.framework.TestSuite;
+import vfs.impl.core.BlockCacheTest;
 import vfs.impl.core.BlockDeviceTest;
 import vfs.impl.core.BlockTest;
 import vfs.impl.core.ByteBufferDataStorageTest;
+import vfs.impl.core.CompressedAllocatorTest;
+import vfs.impl.core.ConcurrentAllocatorTest;
+import vfs.impl.core.ExtentAllocatorTest;
+import vfs.impl.core.FileChannelDataStorageTest;
+import vfs.impl.core.HierarchicalAllocatorTest;
+import vfs.impl.core.MappedFileDataStorageTest;
+import vfs.impl.core.OccupancyScannerTest;
+import vfs.impl.core.PersistentAllocatorTest;
 import vfs.impl.core.SimpleAllocatorTest;
+import vfs.impl.proto.DentryCacheTest;
+import vfs.impl.proto.EntryRecordsTest;
+import vfs.impl.proto.HashedDirsTest;
+import vfs.impl.proto.MetaCodecTest;
+import vfs.impl.proto.NodeCacheTest;
 import vfs.impl.proto.NodeFlagsTest;
+import vfs.impl.proto.ProtoVFSReopenTest;
 import vfs.impl.proto.ProtoVFSTest;
 
 public class VFSTestSuite extends TestSuite{
@@ -19,11 +34,26 @@ public class VFSTestSuite extends TestSuite{
             final TestSuite suite = new VFSTestSuite("VFSTestSuite");
 
             suite.addTestSuite(SimpleAllocatorTest.class);
+            suite.addTestSuite(ExtentAllocatorTest.class);
+            suite.addTestSuite(HierarchicalAllocatorTest.class);
+            suite.addTestSuite(CompressedAllocatorTest.class);
+            suite.addTestSuite(ConcurrentAllocatorTest.class);
+            suite.addTestSuite(PersistentAllocatorTest.class);
             suite.addTestSuite(BlockTest.class);
             suite.addTestSuite(BlockDeviceTest.class);
+            suite.addTestSuite(BlockCacheTest.class);
             suite.addTestSuite(ByteBufferDataStorageTest.class);
+            suite.addTestSuite(MappedFileDataStorageTest.class);
+            suite.addTestSuite(FileChannelDataStorageTest.class);
+            suite.addTestSuite(OccupancyScannerTest.class);
             suite.addTestSuite(NodeFlagsTest.class);
+            suite.addTestSuite(DentryCacheTest.class);
+            suite.addTestSuite(NodeCacheTest.class);
+            suite.addTestSuite(MetaCodecTest.class);
+            suite.addTestSuite(EntryRecordsTest.class);
+            suite.addTestSuite(HashedDirsTest.class);
             suite.addTestSuite(ProtoVFSTest.class);
+            suite.addTestSuite(ProtoVFSReopenTest.class);
 
             return suite;
         }
@@ -0,0 +1,73 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class BlockCacheTest extends TestCase {
+
+    private static final int BLOCK = 64;
+
+    private ByteBufferDataStorage storage;
+    private BlockCache cache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        storage = new ByteBufferDataStorage(ByteBuffer.allocate(BLOCK * 16));
+        cache = new BlockCache(storage, storage, BLOCK, BLOCK * 2);
+    }
+
+    public void testRepeatedReadsHitTheCache() throws Exception {
+        write(storage, BLOCK, fill(BLOCK, 7));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Arrays.equals(fill(BLOCK, 7), cache.read(BLOCK, BLOCK)));
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    public void testWritesStayInCacheUntilFlush() throws Exception {
+        write(cache, 3, new byte[]{1, 2, 3});
+
+        assertTrue(Arrays.equals(new byte[]{0, 1, 2, 3}, cache.read(2, 4)));
+        assertTrue(Arrays.equals(new byte[4], storage.read(2, 4)));
+        cache.flush();
+        assertTrue(Arrays.equals(new byte[]{0, 1, 2, 3}, storage.read(2, 4)));
+    }
+
+    public void testEvictionWritesDirtyBlockBack() throws Exception {
+        write(cache, 0, fill(BLOCK, 1));
+        write(cache, BLOCK, fill(BLOCK, 2));
+        write(cache, BLOCK * 2, fill(BLOCK, 3));
+
+        assertEquals(1, cache.getEvictions());
+        assertTrue(Arrays.equals(fill(BLOCK, 1), storage.read(0, BLOCK)));
+        assertTrue(Arrays.equals(new byte[BLOCK], storage.read(BLOCK, BLOCK)));
+        assertTrue(Arrays.equals(fill(BLOCK, 3), cache.read(BLOCK * 2, BLOCK)));
+    }
+
+    public void testMultiBlockWriteGoesThroughAndDropsStaleCopies() throws Exception {
+        write(cache, 0, fill(BLOCK, 1));
+        write(cache, 0, fill(BLOCK * 3, 9));
+
+        assertTrue(Arrays.equals(fill(BLOCK * 3, 9), storage.read(0, BLOCK * 3)));
+        cache.flush();
+        assertTrue(Arrays.equals(fill(BLOCK * 3, 9), cache.read(0, BLOCK * 3)));
+    }
+
+    private static void write(final ByteSink sink, final long pos, final byte[] data) throws Exception {
+        final OutputStream out = sink.openOut(pos);
+        out.write(data);
+        out.close();
+    }
+
+    private static byte[] fill(final int len, final int value) {
+        final byte[] out = new byte[len];
+        Arrays.fill(out, (byte) value);
+        return out;
+    }
+}
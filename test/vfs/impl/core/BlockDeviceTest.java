@@ -27,7 +27,7 @@ public class BlockDeviceTest extends TestCase {
     private void init(final int dataSize) {
         data = new byte[dataSize];
         final ByteBufferDataStorage storage = new ByteBufferDataStorage(ByteBuffer.wrap(data));
-        dev = new BlockDevice(TEST_BLOCK_SIZE, storage, storage, (alloc = new SimpleAllocator(dataSize/TEST_BLOCK_SIZE)));
+        dev = new BlockDevice(TEST_BLOCK_SIZE, storage, storage, (alloc = new SimpleAllocator()));
     }
 
     public byte[] prepareBytes(final int cnt) {
@@ -133,6 +133,88 @@ public class BlockDeviceTest extends TestCase {
         assertTrue(Arrays.equals(totalDataWritten, readData));
     }
 
+    @Test
+    public void testSequentialWriteIsContiguousAndReleasesUnusedReservation() throws Exception {
+        final int blocks = 7;
+        final byte[] bytes = prepareBytes(Block.calcUsefulPayload(TEST_BLOCK_SIZE) * blocks);
+        final int block = dev.openWriter().write(bytes).close();
+        assertEquals(0, block);
+        assertEquals(blocks - 1, dev.last(block).getNo());
+        for (int i = 0; i < blocks; i++) {
+            assertFalse(alloc.isFree(i));
+        }
+        for (int i = blocks; i < data.length / TEST_BLOCK_SIZE; i++) {
+            assertTrue(alloc.isFree(i));
+        }
+        assertTrue(Arrays.equals(bytes, IOUtils.readInputStreamToBytes(dev.openReader(block).asStream())));
+    }
+
+    @Test
+    public void testContiguousChainIsReadAhead() throws Exception {
+        final int blocks = 20;
+        final byte[] bytes = prepareBytes(Block.calcUsefulPayload(TEST_BLOCK_SIZE) * blocks);
+        final int block = dev.openWriter().write(bytes).close();
+
+        final ByteBufferDataStorage storage = new ByteBufferDataStorage(ByteBuffer.wrap(data));
+        final int[] reads = new int[1];
+        final ByteSrc counting = new ByteSrc() {
+            @Override
+            public byte[] read(final long from, final int length) {
+                reads[0]++;
+                return storage.read(from, length);
+            }
+
+            @Override
+            public ByteBuffer read(final long from, final int length, final ByteBuffer dst) {
+                reads[0]++;
+                return storage.read(from, length, dst);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final BlockDevice reading = new BlockDevice(TEST_BLOCK_SIZE, storage, counting, alloc);
+
+        assertTrue(Arrays.equals(bytes, IOUtils.readInputStreamToBytes(reading.openReader(block).asStream())));
+        assertTrue("expected read-ahead to merge reads, but got " + reads[0], reads[0] < blocks / 2);
+    }
+
+    @Test
+    public void testCountBytesSumsTheChain() throws Exception {
+        final int payload = Block.calcUsefulPayload(TEST_BLOCK_SIZE);
+        final int block = dev.openWriter().write(prepareBytes(payload * 3 + 17)).close();
+        assertEquals(payload * 3 + 17, dev.countBytes(block));
+        dev.openWriter(block).close();
+        assertEquals(0, dev.countBytes(block));
+    }
+
+    @Test
+    public void testBulkReadAcrossBlocks() throws Exception {
+        final byte[] bytes = prepareBytes(Block.calcUsefulPayload(TEST_BLOCK_SIZE) * 3 + 7);
+        final int block = dev.openWriter().write(bytes).close();
+
+        final InputStream is = dev.openReader(block).asStream();
+        final byte[] outBytes = new byte[bytes.length + 10];
+        assertEquals(bytes.length, is.read(outBytes, 5, bytes.length + 5));
+        assertEquals(-1, is.read(outBytes, 0, 1));
+        assertTrue(Arrays.equals(bytes, Arrays.copyOfRange(outBytes, 5, 5 + bytes.length)));
+    }
+
+    @Test
+    public void testSkipAcrossBlocks() throws Exception {
+        final int payload = Block.calcUsefulPayload(TEST_BLOCK_SIZE);
+        final byte[] bytes = prepareBytes(payload * 3 + 7);
+        final int block = dev.openWriter().write(bytes).close();
+
+        final InputStream is = dev.openReader(block).asStream();
+        assertEquals(payload, is.available());
+        assertEquals(payload * 2 + 3, is.skip(payload * 2 + 3));
+        assertEquals(bytes[payload * 2 + 3] & 0xff, is.read());
+        assertEquals(bytes.length - (payload * 2 + 4), is.skip(bytes.length));
+        assertEquals(-1, is.read());
+    }
+
     @Test
     public void testTouchedBlockProducesEmptyReadStream() throws Exception {
         this.init(128);
@@ -143,4 +225,31 @@ public class BlockDeviceTest extends TestCase {
         assertEquals(-1, is.read());
     }
 
+    @Test
+    public void testPatchWritesOnlyTheBlocksItTouches() throws Exception {
+        final int payload = Block.calcUsefulPayload(TEST_BLOCK_SIZE);
+        final byte[] bytes = prepareBytes(payload * 3);
+        final int block = dev.openWriter().write(bytes).close();
+        final byte[] before = data.clone();
+
+        //spans the end of the first block and the start of the second one
+        final byte[] patch = {-1, -2, -3, -4};
+        dev.patch(block, payload - 2, patch);
+
+        System.arraycopy(patch, 0, bytes, payload - 2, patch.length);
+        assertTrue(Arrays.equals(bytes, IOUtils.readInputStreamToBytes(dev.openReader(block).asStream())));
+        int changed = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != before[i]) {
+                changed++;
+            }
+        }
+        assertEquals(patch.length, changed);
+        try {
+            dev.patch(block, bytes.length - 1, patch);
+            fail("patched past the end of the chain");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.Random;
+
+public class CompressedAllocatorTest extends TestCase {
+    private static final Logger log = LoggerFactory.getLogger(CompressedAllocatorTest.class);
+
+    private static final int BLOCK_CNT = Integer.MAX_VALUE / 1024;
+
+    public void testConsecutiveAlloc() throws Exception {
+        final CompressedAllocator a = new CompressedAllocator(5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, a.allocAnywhere(1));
+        }
+        try {
+            a.allocAnywhere(1);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    public void testContiguousUseStaysSmall() throws Exception {
+        final CompressedAllocator a = new CompressedAllocator(BLOCK_CNT);
+        assertEquals(0, a.allocAnywhere(100000));
+        assertEquals(100000, a.allocAnywhere(1));
+        assertTrue(a.isFree(100001));
+        assertFalse(a.isFree(70000));
+        log.info("100001 blocks in use take " + a.getSizeInBytes() + " bytes");
+        assertTrue(a.getSizeInBytes() < 256);
+    }
+
+    public void testRunsAcrossChunks() throws Exception {
+        final CompressedAllocator a = new CompressedAllocator(BLOCK_CNT);
+        a.allocAnywhere(65530);
+        assertEquals(65530, a.allocAnywhere(20));
+        assertFalse(a.isFree(65536));
+        a.free(65533, 10);
+        assertTrue(a.isFree(65535));
+        assertTrue(a.isFree(65536));
+        assertFalse(a.isFree(65543));
+        assertEquals(65533, a.allocNextTo(65532, 10));
+        assertEquals(65550, a.allocNextTo(65549));
+    }
+
+    public void testScatteredUseTurnsIntoBitmapAndBack() throws Exception {
+        final CompressedAllocator a = new CompressedAllocator(BLOCK_CNT);
+        a.allocAnywhere(65536);
+        for (int i = 1; i < 65536; i += 2) {
+            a.free(i);
+        }
+        //a plain bitmap of a chunk, not one run per used block
+        assertTrue(a.getSizeInBytes() < 9000);
+        for (int i = 1; i < 65536; i++) {
+            assertEquals(i % 2 == 1, a.isFree(i));
+        }
+        assertEquals(1, a.allocAnywhere(1));
+        assertEquals(3, a.allocNextTo(1));
+        for (int i = 0; i < 65536; i += 2) {
+            a.free(i);
+        }
+        a.free(1);
+        a.free(3);
+        assertTrue(a.getSizeInBytes() < 64);
+        assertEquals(0, a.allocAnywhere(1));
+    }
+
+    public void testAgreesWithReferenceBitmap() throws Exception {
+        final int blockCnt = 200000;
+        final CompressedAllocator a = new CompressedAllocator(blockCnt);
+        final BitSet used = new BitSet();
+        final Random rnd = new Random(11);
+        for (int op = 0; op < 50000; op++) {
+            final int kind = rnd.nextInt(4);
+            if (kind < 2 && used.cardinality() < blockCnt / 4) {
+                final int num = 1 + rnd.nextInt(kind == 0 ? 4 : 300);
+                final int start = a.allocAnywhere(num);
+                assertTrue(used.get(start, start + num).isEmpty());
+                used.set(start, start + num);
+            } else if (!used.isEmpty()) {
+                //frees a piece of a run, possibly its middle
+                final int block = used.nextSetBit(rnd.nextInt(used.length()));
+                if (block > 0) {
+                    final int num = Math.min(1 + rnd.nextInt(50), used.nextClearBit(block) - block);
+                    a.free(block, num);
+                    used.clear(block, block + num);
+                }
+            }
+        }
+        for (int i = 1; i < blockCnt; i++) {
+            assertEquals(!used.get(i), a.isFree(i));
+        }
+        final CompressedAllocator reloaded = new CompressedAllocator(used, blockCnt);
+        for (int i = 1; i < blockCnt; i++) {
+            assertEquals(a.isFree(i), reloaded.isFree(i));
+        }
+        assertEquals(used.nextClearBit(0), reloaded.allocAnywhere(1));
+    }
+}
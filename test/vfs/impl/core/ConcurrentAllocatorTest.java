@@ -0,0 +1,137 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentAllocatorTest extends TestCase {
+    private static final Logger log = LoggerFactory.getLogger(ConcurrentAllocatorTest.class);
+
+    public void testConsecutiveAlloc() throws Exception {
+        final ConcurrentAllocator a = new ConcurrentAllocator(5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, a.allocAnywhere(1));
+        }
+        try {
+            a.allocAnywhere(1);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    public void testStealsFromOtherGroupWhenOwnIsFull() throws Exception {
+        final int blockCnt = 3 * ConcurrentAllocator.GROUP_SIZE;
+        final BitSet src = new BitSet();
+        src.set(0, ConcurrentAllocator.GROUP_SIZE);
+        src.clear(100, 103);
+        final ConcurrentAllocator a = new ConcurrentAllocator(src, blockCnt);
+        assertEquals(0, a.getGroup());
+        assertEquals(100, a.allocAnywhere(3));
+        assertEquals(ConcurrentAllocator.GROUP_SIZE, a.allocAnywhere(1));
+        assertEquals(1, a.getGroup());
+        a.free(101);
+        assertEquals(101, a.allocNextTo(100));
+        assertEquals(ConcurrentAllocator.GROUP_SIZE + 1, a.allocNextTo(101, 2));
+    }
+
+    public void testRunsAcrossWordsAndHugeRuns() throws Exception {
+        final ConcurrentAllocator a = new ConcurrentAllocator(4 * ConcurrentAllocator.GROUP_SIZE);
+        assertEquals(0, a.allocAnywhere(60));
+        assertEquals(60, a.allocAnywhere(100));
+        a.free(30, 70);
+        assertEquals(30, a.allocAnywhere(70));
+        final int huge = a.allocAnywhere(ConcurrentAllocator.GROUP_SIZE + 1);
+        assertEquals(160, huge);
+        assertFalse(a.isFree(huge + ConcurrentAllocator.GROUP_SIZE));
+        assertTrue(a.isFree(huge + ConcurrentAllocator.GROUP_SIZE + 1));
+    }
+
+    public void testAgreesWithReferenceBitmap() throws Exception {
+        final int blockCnt = 3 * ConcurrentAllocator.GROUP_SIZE;
+        final ConcurrentAllocator a = new ConcurrentAllocator(blockCnt);
+        final BitSet used = new BitSet();
+        final Random rnd = new Random(5);
+        for (int op = 0; op < 30000; op++) {
+            if (rnd.nextInt(3) > 0 && used.cardinality() < blockCnt / 4) {
+                final int num = 1 + rnd.nextInt(100);
+                final int start = rnd.nextBoolean() ? a.allocAnywhere(num) : a.allocNextTo(rnd.nextInt(blockCnt - 1), num);
+                assertTrue(used.get(start, start + num).isEmpty());
+                used.set(start, start + num);
+            } else if (!used.isEmpty()) {
+                final int block = used.nextSetBit(rnd.nextInt(used.length()));
+                if (block > 0) {
+                    final int num = Math.min(1 + rnd.nextInt(20), used.nextClearBit(block) - block);
+                    a.free(block, num);
+                    used.clear(block, block + num);
+                }
+            }
+        }
+        for (int i = 1; i < blockCnt; i++) {
+            assertEquals(!used.get(i), a.isFree(i));
+        }
+    }
+
+    public void testThreadsNeverGetTheSameBlockAndStayInTheirGroups() throws Exception {
+        final int threadCnt = 8;
+        final int perThread = 20000;
+        final ConcurrentAllocator a = new ConcurrentAllocator(threadCnt * 2 * ConcurrentAllocator.GROUP_SIZE);
+        final int[][] got = new int[threadCnt][perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[threadCnt];
+        for (int t = 0; t < threadCnt; t++) {
+            final int[] mine = got[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final Random rnd = new Random(mine.hashCode());
+                        for (int i = 0; i < perThread; i++) {
+                            mine[i] = i == 0 ? a.allocAnywhere(1) : a.allocNextTo(mine[i - 1]);
+                            //some churn, so threads keep meeting in freed words
+                            if (i > 10 && rnd.nextInt(8) == 0) {
+                                final int back = i - 1 - rnd.nextInt(10);
+                                if (mine[back] >= 0) {
+                                    a.free(mine[back]);
+                                    mine[back] = -1;
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        final long startTs = System.nanoTime();
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        log.info(threadCnt + " threads allocated " + threadCnt * perThread + " blocks in "
+                + (System.nanoTime() - startTs) / 1000000 + " ms");
+        assertNull(error.get());
+        final BitSet seen = new BitSet();
+        for (final int[] mine : got) {
+            final BitSet groups = new BitSet();
+            for (final int block : mine) {
+                if (block >= 0) {
+                    assertFalse("block " + block + " handed out twice", seen.get(block));
+                    seen.set(block);
+                    assertFalse(a.isFree(block));
+                    groups.set(block / ConcurrentAllocator.GROUP_SIZE);
+                }
+            }
+            //each thread writes into its own group, moving to another only when that one fills up
+            assertTrue(groups.cardinality() <= 2);
+        }
+    }
+}
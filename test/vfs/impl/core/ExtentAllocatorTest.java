@@ -0,0 +1,77 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+
+public class ExtentAllocatorTest extends TestCase {
+
+    public void testConsecutiveAlloc() throws Exception {
+        final ExtentAllocator a = new ExtentAllocator(5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, a.allocAnywhere(1));
+        }
+    }
+
+    public void testRunGoesToSmallestHoleThatFits() throws Exception {
+        final BitSet src = new BitSet();
+        src.set(0, 2);
+        src.set(6, 8);
+        src.set(11, 13);
+        //holes: 2..5 (4 blocks), 8..10 (3 blocks), 13.. (rest)
+        final ExtentAllocator a = new ExtentAllocator(src, 64);
+        assertEquals(8, a.allocAnywhere(3));
+        assertEquals(2, a.allocAnywhere(2));
+        assertEquals(13, a.allocAnywhere(5));
+    }
+
+    public void testNextToHintIsHonored() throws Exception {
+        final BitSet src = new BitSet();
+        src.set(0, 10);
+        final ExtentAllocator a = new ExtentAllocator(src, 64);
+        a.free(3);
+        a.free(7);
+        assertEquals(7, a.allocNextTo(6));
+        assertEquals(10, a.allocNextTo(9));
+        assertEquals(3, a.allocNextTo(1));
+    }
+
+    public void testRunNextToATakenBlockGoesWhereItHasRoomToGrow() throws Exception {
+        final BitSet src = new BitSet();
+        src.set(0, 2);
+        src.set(6, 8);
+        src.set(11, 13);
+        //holes: 2..5 (4 blocks), 8..10 (3 blocks), 13.. (rest)
+        final ExtentAllocator a = new ExtentAllocator(src, 64);
+        assertEquals(2, a.allocNextTo(0, 2));
+        //4..5 fits, but leaves no room for as much again
+        assertEquals(13, a.allocNextTo(6, 2));
+        assertEquals(4, a.allocAnywhere(2));
+    }
+
+    public void testFreeMergesNeighbours() throws Exception {
+        final ExtentAllocator a = new ExtentAllocator(16);
+        assertEquals(0, a.allocAnywhere(8));
+        a.free(2);
+        a.free(4);
+        assertEquals(3, a.getFreeExtentCount());
+        a.free(3);
+        assertEquals(2, a.getFreeExtentCount());
+        a.free(5, 3);
+        assertEquals(1, a.getFreeExtentCount());
+        assertTrue(a.isFree(2));
+        assertFalse(a.isFree(1));
+    }
+
+    public void testDoubleFreeIsRejected() throws Exception {
+        final ExtentAllocator a = new ExtentAllocator(16);
+        a.allocAnywhere(4);
+        a.free(1, 2);
+        try {
+            a.free(2);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            //ok
+        }
+    }
+}
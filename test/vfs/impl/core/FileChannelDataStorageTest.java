@@ -0,0 +1,77 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class FileChannelDataStorageTest extends TestCase {
+
+    private static final int CHUNK = 512;
+    private static final int CHUNK_CNT = 64;
+
+    private FileChannelDataStorage storage;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        final File target = new File("/tmp/_test_channel_storage.bin");
+        if (target.exists() && !target.delete()) {
+            throw new IllegalStateException("could not delete " + target);
+        }
+        storage = new FileChannelDataStorage(new RandomAccessFile(target, "rw"));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        storage.close();
+        super.tearDown();
+    }
+
+    public void testReadAndWrite() throws Exception {
+        final OutputStream out = storage.openOut(2);
+        out.write(new byte[]{0, 1, 2, 3});
+        out.close();
+
+        assertTrue(Arrays.equals(new byte[]{0, 0, 0, 1, 2, 3, 0, 0}, storage.read(0, 8)));
+    }
+
+    public void testConcurrentReadersSeeTheirOwnChunks() throws Exception {
+        for (int c = 0; c < CHUNK_CNT; c++) {
+            final OutputStream out = storage.openOut((long) c * CHUNK);
+            out.write(chunk(c));
+            out.close();
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] results = new Future<?>[CHUNK_CNT * 4];
+            for (int i = 0; i < results.length; i++) {
+                final int c = i % CHUNK_CNT;
+                results[i] = pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        assertTrue(Arrays.equals(chunk(c), storage.read((long) c * CHUNK, CHUNK)));
+                        return null;
+                    }
+                });
+            }
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] chunk(final int c) {
+        final byte[] out = new byte[CHUNK];
+        Arrays.fill(out, (byte) c);
+        return out;
+    }
+}
@@ -0,0 +1,125 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.Random;
+
+public class HierarchicalAllocatorTest extends TestCase {
+    private static final Logger log = LoggerFactory.getLogger(HierarchicalAllocatorTest.class);
+
+    public void testConsecutiveAlloc() throws Exception {
+        final HierarchicalAllocator a = new HierarchicalAllocator(5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, a.allocAnywhere(1));
+        }
+        assertEquals(0, a.getFreeCount());
+    }
+
+    public void testFindsFreeBlocksAcrossLevels() throws Exception {
+        final int blockCnt = 64 * 64 * 64 + 100;
+        final BitSet src = new BitSet();
+        src.set(0, blockCnt);
+        src.clear(70000);
+        src.clear(blockCnt - 3, blockCnt - 1);
+        final HierarchicalAllocator a = new HierarchicalAllocator(src, blockCnt);
+        assertEquals(3, a.getFreeCount());
+
+        assertEquals(70000, a.allocAnywhere(1));
+        assertEquals(blockCnt - 3, a.allocAnywhere(2));
+        assertEquals(0, a.getFreeCount());
+        a.free(5);
+        assertEquals(5, a.allocNextTo(1));
+    }
+
+    public void testRunSkipsTooShortHoles() throws Exception {
+        final BitSet src = new BitSet();
+        src.set(0, 200);
+        src.clear(10, 12);
+        src.clear(100, 103);
+        src.clear(150, 160);
+        final HierarchicalAllocator a = new HierarchicalAllocator(src, 1000);
+        assertEquals(150, a.allocAnywhere(4));
+        assertEquals(100, a.allocAnywhere(3));
+        assertEquals(154, a.allocNextTo(153, 6));
+        assertEquals(200, a.allocNextTo(10, 5));
+    }
+
+    public void testAgreesWithReferenceBitmap() throws Exception {
+        final int blockCnt = 20000;
+        final HierarchicalAllocator a = new HierarchicalAllocator(blockCnt);
+        final BitSet used = new BitSet();
+        final Random rnd = new Random(7);
+        for (int op = 0; op < 20000; op++) {
+            if (rnd.nextInt(3) > 0 && used.cardinality() < blockCnt / 2) {
+                final int num = 1 + rnd.nextInt(8);
+                final int start = a.allocAnywhere(num);
+                assertTrue(used.get(start, start + num).isEmpty());
+                used.set(start, start + num);
+            } else if (!used.isEmpty()) {
+                final int block = used.nextSetBit(rnd.nextInt(used.length()));
+                if (block > 0) {
+                    a.free(block);
+                    used.clear(block);
+                }
+            }
+        }
+        assertEquals(blockCnt - used.cardinality(), a.getFreeCount());
+        for (int i = 1; i < blockCnt; i++) {
+            assertEquals(!used.get(i), a.isFree(i));
+        }
+    }
+
+    public void testRunsAreFirstFitAcrossWordsAndLevels() throws Exception {
+        final int blockCnt = 64 * 64 * 3 + 17;
+        final HierarchicalAllocator a = new HierarchicalAllocator(blockCnt);
+        final BitSet used = new BitSet();
+        used.set(0);
+        a.allocAnywhere(1);
+        final Random rnd = new Random(3);
+        for (int op = 0; op < 5000; op++) {
+            if (rnd.nextBoolean()) {
+                final int num = 1 + rnd.nextInt(rnd.nextBoolean() ? 8 : 300);
+                int expected = used.nextClearBit(1);
+                while (used.nextSetBit(expected) >= 0 && used.nextSetBit(expected) - expected < num) {
+                    expected = used.nextClearBit(used.nextSetBit(expected));
+                }
+                if (expected + num > blockCnt) {
+                    continue;
+                }
+                assertEquals(expected, a.allocAnywhere(num));
+                used.set(expected, expected + num);
+            } else if (used.cardinality() > 1) {
+                final int start = used.nextSetBit(1 + rnd.nextInt(used.length()));
+                if (start > 0) {
+                    final int num = Math.min(1 + rnd.nextInt(200), used.nextClearBit(start) - start);
+                    a.free(start, num);
+                    used.clear(start, start + num);
+                }
+            }
+        }
+        assertEquals(blockCnt - used.cardinality(), a.getFreeCount());
+    }
+
+    public void testAllocationLatencyOnNearlyFullVolume() throws Exception {
+        final int blockCnt = 4 * 1024 * 1024;
+        final BitSet src = new BitSet();
+        src.set(0, blockCnt);
+        for (int i = blockCnt - 4096; i < blockCnt; i += 2) {
+            src.clear(i);
+        }
+        final BlockAllocator[] allocators = {new SimpleAllocator(src), new HierarchicalAllocator(src, blockCnt)};
+        for (final BlockAllocator a : allocators) {
+            final long startTs = System.nanoTime();
+            //a block freed near the start sends SimpleAllocator's cursor back, the next search walks the whole bitmap
+            for (int i = 0; i < 1000; i++) {
+                a.free(1 + i);
+                assertEquals(1 + i, a.allocAnywhere(1));
+                a.allocAnywhere(1);
+            }
+            log.info(a.getClass().getSimpleName() + ": " + (System.nanoTime() - startTs) / 2000 + " ns per allocation");
+        }
+    }
+}
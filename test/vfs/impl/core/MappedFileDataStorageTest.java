@@ -0,0 +1,58 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class MappedFileDataStorageTest extends TestCase {
+
+    private static final int SEGMENT_SIZE = 16;
+
+    private File target;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        target = new File("/tmp/_test_mapped_storage.bin");
+        if (target.exists() && !target.delete()) {
+            throw new IllegalStateException("could not delete " + target);
+        }
+    }
+
+    private MappedFileDataStorage open() throws Exception {
+        return new MappedFileDataStorage(new RandomAccessFile(target, "rw"), SEGMENT_SIZE);
+    }
+
+    public void testReadAndWrite() throws Exception {
+        final MappedFileDataStorage storage = open();
+        final OutputStream out = storage.openOut(2);
+        out.write(new byte[]{0, 1, 2, 3});
+        out.close();
+
+        assertTrue(Arrays.equals(new byte[]{0, 0, 0, 1, 2, 3, 0, 0}, storage.read(0, 8)));
+        storage.close();
+    }
+
+    public void testWriteAcrossSegmentsAndReopen() throws Exception {
+        final byte[] bytes = new byte[SEGMENT_SIZE * 3 + 5];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i + 1);
+        }
+        final MappedFileDataStorage storage = open();
+        final OutputStream out = storage.openOut(SEGMENT_SIZE - 3);
+        out.write(bytes);
+        out.write(42);
+        out.close();
+        storage.close();
+
+        assertEquals(SEGMENT_SIZE - 3 + bytes.length + 1, target.length());
+
+        final MappedFileDataStorage reopened = open();
+        assertTrue(Arrays.equals(bytes, reopened.read(SEGMENT_SIZE - 3, bytes.length)));
+        assertEquals(42, reopened.read(SEGMENT_SIZE - 3 + bytes.length, 1)[0]);
+        reopened.close();
+    }
+}
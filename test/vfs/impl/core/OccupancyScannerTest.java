@@ -0,0 +1,41 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+public class OccupancyScannerTest extends TestCase {
+
+    private static final int BLOCK = 64;
+
+    public void testScanAcrossSeveralRanges() throws Exception {
+        final File target = new File("/tmp/_test_scan.bin");
+        if (target.exists() && !target.delete()) {
+            throw new IllegalStateException("could not delete " + target);
+        }
+        final int blockCnt = 3 * 4 * 1024 * 1024 / BLOCK + 17;
+        final FileChannelDataStorage storage = new FileChannelDataStorage(new RandomAccessFile(target, "rw"));
+        try {
+            final BitSet expected = new BitSet();
+            for (int no = 0; no < blockCnt; no += 997) {
+                write(storage, new Block(no, 0, new byte[0]));
+                expected.set(no);
+            }
+            write(storage, new Block(blockCnt - 1, 0, new byte[]{1}));
+            expected.set(blockCnt - 1);
+
+            assertEquals(expected, storage.loadOccupanceBitMap(BLOCK));
+        } finally {
+            storage.close();
+        }
+    }
+
+    private static void write(final ByteSink sink, final Block block) throws Exception {
+        final OutputStream out = sink.openOut(BlockDevice.offset(block.getNo(), BLOCK));
+        Block.encode(out, block, BLOCK);
+        out.close();
+    }
+}
@@ -0,0 +1,107 @@
+package vfs.impl.core;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PersistentAllocatorTest extends TestCase {
+
+    private static final int BLOCK = 64;
+
+    private ByteBufferDataStorage storage;
+    private PersistentAllocator alloc;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        storage = new ByteBufferDataStorage(ByteBuffer.allocate(BLOCK * 2048));
+        alloc = new PersistentAllocator(new SimpleAllocator(new BitSet()), BLOCK, storage, -1, 0, -1, false);
+    }
+
+    public void testSyncedBitmapLoadsBack() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            alloc.allocAnywhere(1);
+        }
+        alloc.free(3);
+        alloc.free(7, 2);
+        assertTrue(alloc.sync());
+
+        final BitSet loaded = PersistentAllocator.load(storage, BLOCK, alloc.getRegionStart(), alloc.getRegionBlocks());
+        for (int i = 0; i < 64; i++) {
+            assertEquals("block " + i, !alloc.isFree(i), loaded.get(i));
+        }
+        for (int i = 0; i < alloc.getRegionBlocks(); i++) {
+            assertTrue(loaded.get(alloc.getRegionStart() + i));
+        }
+    }
+
+    public void testBitmapMovesOnlyWhenOutgrown() throws Exception {
+        alloc.allocAnywhere(1);
+        assertTrue(alloc.sync());
+        final int start = alloc.getRegionStart();
+        alloc.allocAnywhere(4);
+        assertFalse(alloc.sync());
+        assertEquals(start, alloc.getRegionStart());
+
+        final int bitsPerBlock = Block.calcUsefulPayload(BLOCK) * 8;
+        alloc.allocAnywhere(alloc.getRegionBlocks() * bitsPerBlock);
+        assertTrue(alloc.sync());
+        assertTrue(alloc.isFree(start));
+        final BitSet loaded = PersistentAllocator.load(storage, BLOCK, alloc.getRegionStart(), alloc.getRegionBlocks());
+        assertEquals(alloc.getRegionStart() + alloc.getRegionBlocks(), loaded.length());
+    }
+
+    public void testBitmapKeepsUpWithConcurrentWriters() throws Exception {
+        final int threadCnt = 8;
+        final int blockCnt = threadCnt * 2 * ConcurrentAllocator.GROUP_SIZE;
+        final ByteBufferDataStorage big = new ByteBufferDataStorage(ByteBuffer.allocate(BLOCK * blockCnt));
+        final PersistentAllocator shared = new PersistentAllocator(new ConcurrentAllocator(blockCnt), BLOCK, big, -1, 0, -1, false);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[threadCnt];
+        for (int t = 0; t < threadCnt; t++) {
+            final Random rnd = new Random(t);
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final int[] mine = new int[5000];
+                        for (int i = 0; i < mine.length; i++) {
+                            mine[i] = i == 0 ? shared.allocAnywhere(1) : shared.allocNextTo(mine[i - 1]);
+                            if (i > 10 && rnd.nextInt(4) == 0) {
+                                final int back = i - 1 - rnd.nextInt(10);
+                                if (mine[back] >= 0) {
+                                    shared.free(mine[back]);
+                                    mine[back] = -1;
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            //syncs while the writers are at it must not lose what they change
+            while (thread.isAlive()) {
+                shared.sync();
+                thread.join(1);
+            }
+        }
+        assertNull(error.get());
+        shared.sync();
+
+        final BitSet loaded = PersistentAllocator.load(big, BLOCK, shared.getRegionStart(), shared.getRegionBlocks());
+        for (int i = 0; i < blockCnt; i++) {
+            assertEquals("block " + i, !shared.isFree(i), loaded.get(i));
+        }
+    }
+}
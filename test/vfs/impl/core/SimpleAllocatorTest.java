@@ -7,7 +7,7 @@ import java.util.BitSet;
 public class SimpleAllocatorTest extends TestCase {
 
     public void testConsecutiveAlloc() throws Exception {
-        final SimpleAllocator a = new SimpleAllocator(5);
+        final SimpleAllocator a = new SimpleAllocator();
         for (int i = 0; i < 5; i ++) {
             assertEquals(i, a.allocAnywhere(1));
         }
@@ -27,4 +27,33 @@ public class SimpleAllocatorTest extends TestCase {
         a.allocAnywhere(1);
     }
 
+    public void testRunAllocSkipsTooShortHoles() throws Exception {
+        final BitSet src = new BitSet(16);
+        src.set(1);
+        src.set(4);
+        src.set(7);
+        final SimpleAllocator a = new SimpleAllocator(src);
+        assertEquals(8, a.allocAnywhere(3));
+        for (int i = 8; i < 11; i++) {
+            assertFalse(a.isFree(i));
+        }
+        assertEquals(2, a.allocAnywhere(2));
+        assertEquals(5, a.allocAnywhere(1));
+        assertEquals(6, a.allocAnywhere(1));
+        assertEquals(11, a.allocAnywhere(1));
+    }
+
+    public void testRunNextToABlockIsTakenWhenFree() throws Exception {
+        final BitSet src = new BitSet(16);
+        src.set(1);
+        src.set(2);
+        src.set(9);
+        final SimpleAllocator a = new SimpleAllocator(src);
+        assertEquals(5, a.allocNextTo(4, 3));
+        //8 to 10 is not free, the run goes first fit
+        assertEquals(10, a.allocNextTo(7, 3));
+        assertEquals(3, a.allocAnywhere(1));
+        assertEquals(4, a.allocAnywhere(1));
+        assertEquals(8, a.allocAnywhere(1));
+    }
 }
@@ -0,0 +1,44 @@
+package vfs.impl.proto;
+
+import junit.framework.TestCase;
+
+public class DentryCacheTest extends TestCase {
+
+    private static ProtoVFile file(final String path) {
+        return new ProtoVFile(null, path.substring(path.lastIndexOf('/') + 1), path, new NodeFlags(false, false), path.length(), 1);
+    }
+
+    public void testPositiveAndNegativeEntries() throws Exception {
+        final DentryCache cache = new DentryCache(10);
+        final ProtoVFile foo = file("/foo");
+        cache.put("/foo", foo);
+        cache.putMissing("/bar");
+        assertSame(foo, cache.get("/foo"));
+        assertNull(cache.get("/bar"));
+        assertTrue(cache.isMissing("/bar"));
+        assertFalse(cache.isMissing("/foo"));
+        assertFalse(cache.isMissing("/baz"));
+
+        final ProtoVFile bar = file("/bar");
+        cache.created("/bar", bar);
+        assertSame(bar, cache.get("/bar"));
+        //the first file of a name stays, it is what listing the directory finds
+        cache.created("/bar", file("/bar"));
+        assertSame(bar, cache.get("/bar"));
+
+        cache.remove("/bar");
+        assertNull(cache.get("/bar"));
+        assertFalse(cache.isMissing("/bar"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final DentryCache cache = new DentryCache(2);
+        cache.put("/a", file("/a"));
+        cache.putMissing("/b");
+        assertNotNull(cache.get("/a"));
+        cache.put("/c", file("/c"));
+        assertNotNull(cache.get("/a"));
+        assertNotNull(cache.get("/c"));
+        assertFalse(cache.isMissing("/b"));
+    }
+}
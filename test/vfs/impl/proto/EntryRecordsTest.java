@@ -0,0 +1,165 @@
+package vfs.impl.proto;
+
+import junit.framework.TestCase;
+import util.collections.Cf;
+import vfs.impl.core.BlockDevice;
+import vfs.impl.core.ByteBufferDataStorage;
+import vfs.impl.core.DataOutput;
+import vfs.impl.core.SimpleAllocator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+public class EntryRecordsTest extends TestCase {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int BLOCK_CNT = 256;
+
+    private byte[] data;
+    private BlockDevice device;
+    private EntryRecords records;
+    private int start;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        data = new byte[BLOCK_CNT * BLOCK_SIZE];
+        final ByteBufferDataStorage storage = new ByteBufferDataStorage(ByteBuffer.wrap(data));
+        final SimpleAllocator allocator = new SimpleAllocator();
+        device = new BlockDevice(BLOCK_SIZE, storage, storage, allocator);
+        records = new EntryRecords(device, MetaCodec.PROTOBUF);
+        start = allocator.allocAnywhere(1);
+        device.touch(start);
+    }
+
+    private static VFSModel.DirEntry entry(final int inode, final String name) {
+        return VFSModel.DirEntry.newBuilder().setInode(inode).setName(name).setFlags(1 << 30).build();
+    }
+
+    private List<VFSModel.DirEntry> fill(final int cnt) {
+        final List<VFSModel.DirEntry> out = Cf.newArrayList();
+        for (int i = 1; i <= cnt; i++) {
+            final VFSModel.DirEntry entry = entry(i, "file-" + i);
+            records.add(records.read(start, false), entry);
+            out.add(entry);
+        }
+        return out;
+    }
+
+    private int changedBlocks(final byte[] before) {
+        int out = 0;
+        for (int b = 0; b < BLOCK_CNT; b++) {
+            if (!Arrays.equals(Arrays.copyOfRange(before, b * BLOCK_SIZE, (b + 1) * BLOCK_SIZE),
+                    Arrays.copyOfRange(data, b * BLOCK_SIZE, (b + 1) * BLOCK_SIZE))) {
+                out++;
+            }
+        }
+        return out;
+    }
+
+    public void testRemoveLeavesATombstoneInPlace() throws Exception {
+        final List<VFSModel.DirEntry> entries = fill(200);
+        assertTrue(device.countBlocks(start) > 3);
+        final byte[] before = data.clone();
+
+        assertTrue(records.remove(records.read(start, false), 150));
+        assertFalse(records.remove(records.read(start, false), 150));
+
+        assertEquals(1, changedBlocks(before));
+        final EntryRecords.Chain chain = records.read(start, false);
+        assertEquals(1, chain.getTombstoneCnt());
+        entries.remove(149);
+        assertEquals(entries, chain.getEntries());
+    }
+
+    public void testAddTakesTheSlotOfATombstone() throws Exception {
+        final List<VFSModel.DirEntry> entries = fill(200);
+        records.remove(records.read(start, false), 100);
+        final int blocks = device.countBlocks(start);
+        final byte[] before = data.clone();
+
+        //the name is shorter, the inode is written in more bytes to make up for it
+        final VFSModel.DirEntry added = entry(1000, "file-x");
+        records.add(records.read(start, false), added);
+
+        assertEquals(1, changedBlocks(before));
+        assertEquals(blocks, device.countBlocks(start));
+        final EntryRecords.Chain chain = records.read(start, false);
+        assertEquals(0, chain.getTombstoneCnt());
+        entries.set(99, added);
+        assertEquals(entries, chain.getEntries());
+    }
+
+    public void testChainIsCompactedOnceMostlyTombstones() throws Exception {
+        fill(200);
+        final int blocks = device.countBlocks(start);
+        for (int i = 1; i <= 190; i++) {
+            assertTrue(records.remove(records.read(start, false), i));
+            final EntryRecords.Chain chain = records.read(start, false);
+            assertTrue(chain.getTombstoneCnt() <= chain.getEntries().size());
+            assertEquals(200 - i, chain.getEntries().size());
+        }
+        assertTrue(device.countBlocks(start) < blocks);
+    }
+
+    public void testHeaderIsKeptByCompaction() throws Exception {
+        final VFSModel.Bucket head = VFSModel.Bucket.newBuilder().setDepth(3).build();
+        final DataOutput writer = device.openWriter(start);
+        head.writeDelimitedTo(writer.asStream());
+        writer.close();
+        records.add(records.read(start, true), entry(1, "a"));
+        records.add(records.read(start, true), entry(2, "b"));
+        records.remove(records.read(start, true), 1);
+        records.remove(records.read(start, true), 2);
+
+        final EntryRecords.Chain chain = records.read(start, true);
+        assertEquals(head, VFSModel.Bucket.parseFrom(chain.getHeader()));
+        assertTrue(chain.getEntries().isEmpty());
+        assertEquals(0, chain.getTombstoneCnt());
+    }
+
+    public void testFindLooksAtLiveEntriesOnly() throws Exception {
+        fill(200);
+        records.remove(records.read(start, false), 150);
+
+        assertEquals(entry(42, "file-42"), records.find(start, false, "file-42"));
+        assertNull(records.find(start, false, "file-150"));
+        assertNull(records.find(start, false, "file-"));
+    }
+
+    public void testFixedRecordsTakeTombstoneSlotsToo() throws Exception {
+        records = new EntryRecords(device, MetaCodec.FIXED);
+        final List<VFSModel.DirEntry> entries = fill(200);
+        records.remove(records.read(start, false), 100);
+        final byte[] before = data.clone();
+
+        final VFSModel.DirEntry added = entry(1000, "x");
+        records.add(records.read(start, false), added);
+
+        assertEquals(1, changedBlocks(before));
+        final EntryRecords.Chain chain = records.read(start, false);
+        assertEquals(0, chain.getTombstoneCnt());
+        entries.set(99, added);
+        assertEquals(entries, chain.getEntries());
+        assertEquals(added, records.find(start, false, "x"));
+        assertNull(records.find(start, false, "file-100"));
+    }
+
+    public void testCursorViewsLiveEntriesOfAChainAsReadWhenReached() throws Exception {
+        final List<VFSModel.DirEntry> entries = fill(200);
+        records.remove(records.read(start, false), 10);
+        entries.remove(9);
+
+        final EntryRecords.Cursor cursor = records.cursor(new int[]{start}, false);
+        final List<VFSModel.DirEntry> seen = Cf.newArrayList();
+        while (cursor.next()) {
+            final EntryView view = cursor.view();
+            assertEquals("file-" + view.getInode(), view.getName());
+            seen.add(view.toEntry());
+            //removing everything seen so far compacts the chain under the cursor
+            records.remove(records.read(start, false), view.getInode());
+        }
+        assertEquals(entries, seen);
+        assertTrue(records.read(start, false).getEntries().isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+package vfs.impl.proto;
+
+import junit.framework.TestCase;
+import util.collections.Cf;
+import vfs.impl.core.BlockDevice;
+import vfs.impl.core.ByteBufferDataStorage;
+import vfs.impl.core.SimpleAllocator;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HashedDirsTest extends TestCase {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int BLOCK_CNT = 8192;
+
+    private BlockDevice device;
+    private HashedDirs dirs;
+    private int dataBlockNo;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        final ByteBufferDataStorage storage = new ByteBufferDataStorage(ByteBuffer.allocate(BLOCK_CNT * BLOCK_SIZE));
+        final SimpleAllocator allocator = new SimpleAllocator();
+        device = new BlockDevice(BLOCK_SIZE, storage, storage, allocator);
+        dirs = new HashedDirs(device, allocator, MetaCodec.PROTOBUF);
+        dataBlockNo = allocator.allocAnywhere(1);
+        device.touch(dataBlockNo);
+    }
+
+    /**
+     * inodes start from 1, 0 marks a removed entry
+     */
+    private static VFSModel.DirEntry entry(final int i) {
+        return VFSModel.DirEntry.newBuilder().setInode(i + 1).setName("file-" + i).build();
+    }
+
+    public void testConvertedEntriesCanBeFound() throws Exception {
+        final List<VFSModel.DirEntry> entries = Cf.newArrayList();
+        for (int i = 0; i < 300; i++) {
+            entries.add(entry(i));
+        }
+        dirs.create(dataBlockNo, entries);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(entry(i), dirs.find(dataBlockNo, "file-" + i));
+        }
+        assertNull(dirs.find(dataBlockNo, "file-300"));
+        assertEquals(Cf.set(entries), Cf.set(dirs.list(dataBlockNo)));
+    }
+
+    public void testBucketsSplitAsEntriesAreAdded() throws Exception {
+        dirs.create(dataBlockNo, Cf.<VFSModel.DirEntry>newArrayList());
+        final Set<VFSModel.DirEntry> expected = new HashSet<VFSModel.DirEntry>();
+        for (int i = 0; i < 5000; i++) {
+            dirs.add(dataBlockNo, entry(i));
+            expected.add(entry(i));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            assertTrue(dirs.remove(dataBlockNo, "file-" + i, i + 1));
+            expected.remove(entry(i));
+        }
+        assertFalse(dirs.remove(dataBlockNo, "file-0", 1));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i % 2 == 0 ? null : entry(i), dirs.find(dataBlockNo, "file-" + i));
+        }
+        assertEquals(expected, Cf.set(dirs.list(dataBlockNo)));
+
+        //a bucket holds at most one block or two worth of entries, whatever the size of the dir
+        final int bucket = ByteBuffer.wrap(readIndex().getBuckets().toByteArray()).getInt();
+        assertTrue(device.countBlocks(bucket) <= 2);
+    }
+
+    public void testSurvivesLosingDecodedTables() throws Exception {
+        dirs.create(dataBlockNo, Cf.<VFSModel.DirEntry>newArrayList());
+        for (int i = 0; i < 1000; i++) {
+            dirs.add(dataBlockNo, entry(i));
+        }
+        final HashedDirs reread = new HashedDirs(device, null, MetaCodec.PROTOBUF);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(entry(i), reread.find(dataBlockNo, "file-" + i));
+        }
+    }
+
+    public void testPagesGoOnAfterARemovedName() throws Exception {
+        dirs.create(dataBlockNo, Cf.<VFSModel.DirEntry>newArrayList());
+        for (int i = 0; i < 2000; i++) {
+            dirs.add(dataBlockNo, entry(i));
+        }
+        final List<VFSModel.DirEntry> first = dirs.page(dataBlockNo, null, 1000);
+        final String last = first.get(first.size() - 1).getName();
+        final int lastInode = first.get(first.size() - 1).getInode();
+        assertTrue(dirs.remove(dataBlockNo, last, lastInode));
+        final List<VFSModel.DirEntry> rest = dirs.page(dataBlockNo, last, 2000);
+        assertEquals(1000, rest.size());
+        final Set<VFSModel.DirEntry> all = new HashSet<VFSModel.DirEntry>(first);
+        all.addAll(rest);
+        assertEquals(2000, all.size());
+    }
+
+    private VFSModel.DirIndex readIndex() throws Exception {
+        return VFSModel.DirIndex.parseDelimitedFrom(device.openReader(dataBlockNo).asStream());
+    }
+}
@@ -0,0 +1,89 @@
+package vfs.impl.proto;
+
+import com.google.protobuf.ByteString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class MetaCodecTest extends TestCase {
+    private static final MetaCodec[] CODECS = {MetaCodec.PROTOBUF, MetaCodec.FIXED};
+
+    private static VFSModel.DirEntry entry(final int inode, final String name) {
+        return VFSModel.DirEntry.newBuilder().setInode(inode).setName(name).setFlags(1 << 30).setGeneration(-7).build();
+    }
+
+    public void testEntriesReadAsWritten() throws Exception {
+        final VFSModel.DirEntry bare = VFSModel.DirEntry.newBuilder().setInode(Integer.MAX_VALUE).setName("\u00e4/\u00df").build();
+        for (final MetaCodec codec : CODECS) {
+            for (final VFSModel.DirEntry entry : new VFSModel.DirEntry[]{entry(5, "name"), entry(300, ""), bare}) {
+                final byte[] record = codec.encode(entry);
+                assertEquals(entry, codec.decode(record, record.length));
+                assertEquals(entry.getInode(), codec.inode(record, record.length));
+            }
+        }
+    }
+
+    public void testNamesAreComparedWithoutDecoding() throws Exception {
+        for (final MetaCodec codec : CODECS) {
+            final byte[] record = codec.encode(entry(5, "n\u00e4me"));
+            assertTrue(codec.nameEquals(record, record.length, "n\u00e4me".getBytes(MetaCodec.UTF8)));
+            assertFalse(codec.nameEquals(record, record.length, "name".getBytes(MetaCodec.UTF8)));
+            assertFalse(codec.nameEquals(record, record.length, "n\u00e4m".getBytes(MetaCodec.UTF8)));
+        }
+    }
+
+    public void testEntryFitsALongerSlot() throws Exception {
+        for (final MetaCodec codec : CODECS) {
+            final VFSModel.DirEntry entry = entry(300, "name");
+            final int plain = codec.encode(entry).length;
+            assertNull(codec.encode(entry, plain - 1));
+            for (int extra = 0; extra <= 8; extra++) {
+                final byte[] record = codec.encode(entry, plain + extra);
+                assertEquals(plain + extra, record.length);
+                assertEquals(entry, codec.decode(record, record.length));
+                assertTrue(codec.nameEquals(record, record.length, "name".getBytes(MetaCodec.UTF8)));
+            }
+        }
+    }
+
+    public void testTombstoneOverwritesTheInode() throws Exception {
+        for (final MetaCodec codec : CODECS) {
+            final byte[] record = codec.encode(entry(300, "name"));
+            final byte[] tombstone = codec.tombstone(codec.inodeSize(record, record.length));
+            System.arraycopy(tombstone, 0, record, codec.inodePos(), tombstone.length);
+            assertEquals(EntryRecords.TOMBSTONE, codec.inode(record, record.length));
+            assertEquals("name", codec.decode(record, record.length).getName());
+        }
+    }
+
+    public void testPaddedVarintsReadAsTheirValue() throws Exception {
+        final VFSModel.DirEntry entry = entry(300, "name");
+        final byte[] plain = entry.toByteArray();
+        for (int extra = 0; extra <= 8; extra++) {
+            final byte[] padded = MetaCodec.pad(plain, 300, plain.length + extra);
+            assertEquals(plain.length + extra, padded.length);
+            assertEquals(entry, VFSModel.DirEntry.parseFrom(padded));
+        }
+    }
+
+    public void testNodesReadAsWritten() throws Exception {
+        final VFSModel.Node file = VFSModel.Node.newBuilder()
+                .setNo(12).setParentNo(3).setName("file").setFlags(1).setDataBlockNo(13)
+                .setTimestamp(1234567890123L).setSize(1L << 40).setGeneration(-1)
+                .setChecksum(ByteString.copyFrom(new byte[]{1, 2, 3}))
+                .build();
+        final VFSModel.Node root = VFSModel.Node.newBuilder()
+                .setNo(0).setParentNo(-1).setName("/").setFlags(2).setDataBlockNo(1).setTimestamp(0)
+                .build();
+        for (final MetaCodec codec : CODECS) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.writeNode(file, out);
+            codec.writeNode(root, out);
+            final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+            assertEquals(file, codec.readNode(in));
+            assertEquals(root, codec.readNode(in));
+            assertNull(codec.readNode(in));
+        }
+    }
+}
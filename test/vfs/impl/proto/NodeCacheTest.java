@@ -0,0 +1,38 @@
+package vfs.impl.proto;
+
+import junit.framework.TestCase;
+
+public class NodeCacheTest extends TestCase {
+
+    private static VFSModel.Node node(final int no) {
+        return VFSModel.Node.newBuilder()
+                .setNo(no).setParentNo(0).setName("n" + no).setFlags(0).setDataBlockNo(no + 1).setTimestamp(0)
+                .build();
+    }
+
+    public void testCountsHitsAndMisses() throws Exception {
+        final NodeCache cache = new NodeCache(10);
+        final VFSModel.Node node = node(3);
+        assertNull(cache.get(3));
+        cache.put(node);
+        assertSame(node, cache.get(3));
+        assertSame(node, cache.get(3));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.remove(3);
+        assertNull(cache.get(3));
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final NodeCache cache = new NodeCache(2);
+        cache.put(node(1));
+        cache.put(node(2));
+        assertNotNull(cache.get(1));
+        cache.put(node(3));
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+    }
+}
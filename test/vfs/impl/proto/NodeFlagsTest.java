@@ -15,4 +15,12 @@ public class NodeFlagsTest extends TestCase {
         assertFalse(new NodeFlags(false, false).isDir());
         assertTrue(new NodeFlags(false, false).isFile());
     }
+
+    public void testIsHashed() throws Exception {
+        assertFalse(new NodeFlags(true, false).isHashed());
+        final NodeFlags hashed = new NodeFlags(true, false).withHashed();
+        assertTrue(hashed.isHashed());
+        assertTrue(hashed.isDir());
+        assertEquals(hashed, new NodeFlags(hashed.asIntValue()));
+    }
 }
@@ -0,0 +1,141 @@
+package vfs.impl.proto;
+
+import junit.framework.TestCase;
+import util.io.IOUtils;
+import vfs.api.VFile;
+import vfs.api.VFileSystemConfig;
+import vfs.impl.core.BlockDevice;
+import vfs.impl.core.DataOutput;
+import vfs.impl.core.RandomAccessFileDataStorage;
+import vfs.impl.core.SimpleAllocator;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class ProtoVFSReopenTest extends TestCase {
+
+    private static final File TARGET = new File("/tmp/_test_reopen.vfs");
+    private static final VFileSystemConfig CFG = new VFileSystemConfig(1024, true, true, '/');
+
+    public void testCleanlyClosedVfsOpensWithPersistedBitmap() throws Exception {
+        final ProtoVFS created = new ProtoVFSFactory().create(TARGET, true, CFG);
+        final byte[] content = fill(created.fileManager().touch(created.getRoot(), "foo"), 10000);
+        created.fileManager().rm(created.fileManager().touch(created.getRoot(), "bar"));
+        created.close();
+
+        final ProtoVFS opened = new ProtoVFSFactory().open(TARGET, CFG);
+        final byte[] more = fill(opened.fileManager().touch(opened.getRoot(), "baz"), 5000);
+        assertContent(content, opened.fileManager().resolve("/foo"));
+        assertContent(more, opened.fileManager().resolve("/baz"));
+        opened.close();
+
+        final ProtoVFS reopened = new ProtoVFSFactory().open(TARGET, CFG);
+        assertContent(content, reopened.fileManager().resolve("/foo"));
+        assertContent(more, reopened.fileManager().resolve("/baz"));
+        reopened.close();
+    }
+
+    public void testVfsThatWasNotClosedIsScanned() throws Exception {
+        final ProtoVFS created = new ProtoVFSFactory().create(TARGET, true, CFG);
+        final byte[] content = fill(created.fileManager().touch(created.getRoot(), "foo"), 10000);
+        created.sync();
+
+        final ProtoVFS opened = new ProtoVFSFactory().open(TARGET, CFG);
+        final byte[] more = fill(opened.fileManager().touch(opened.getRoot(), "bar"), 5000);
+        assertContent(content, opened.fileManager().resolve("/foo"));
+        assertContent(more, opened.fileManager().resolve("/bar"));
+        opened.close();
+    }
+
+    public void testHashedRootSurvivesReopen() throws Exception {
+        final ProtoVFS created = new ProtoVFSFactory().create(TARGET, true, CFG);
+        for (int i = 0; i < 500; i++) {
+            created.fileManager().touch(created.getRoot(), "f" + i);
+        }
+        final byte[] content = fill(created.fileManager().resolve("/f42"), 3000);
+        created.close();
+
+        final ProtoVFS opened = new ProtoVFSFactory().open(TARGET, CFG);
+        assertTrue(new NodeFlags(opened.getRoot().getProtoNode().getFlags()).isHashed());
+        for (int i = 0; i < 500; i++) {
+            assertNotNull(opened.getRoot().child("f" + i));
+        }
+        assertContent(content, opened.fileManager().resolve("/f42"));
+        opened.close();
+    }
+
+    public void testMetadataFormatIsTakenFromTheContainer() throws Exception {
+        final ProtoVFS created = new ProtoVFSFactory().create(TARGET, true, CFG.withMetadata(VFileSystemConfig.Metadata.FIXED));
+        created.fileManager().mkDirs("/a/b");
+        final byte[] content = fill(created.fileManager().touch(created.fileManager().resolve("/a/b"), "c"), 3000);
+        created.close();
+
+        //opened with the default, the container still reads as written
+        final ProtoVFS opened = new ProtoVFSFactory().open(TARGET, CFG);
+        assertContent(content, opened.fileManager().resolve("/a/b/c"));
+        assertEquals("b", opened.fileManager().resolve("/a/b/c").getParent().getName());
+        opened.close();
+    }
+
+    public void testSizesSurviveReopen() throws Exception {
+        final ProtoVFS created = new ProtoVFSFactory().create(TARGET, true, CFG);
+        fill(created.fileManager().touch(created.getRoot(), "foo"), 70000);
+        final long written = created.fileManager().resolve("/foo").lastModified();
+        created.close();
+
+        final ProtoVFS opened = new ProtoVFSFactory().open(TARGET, CFG);
+        assertEquals(70000, opened.fileManager().resolve("/foo").length());
+        assertEquals(written, opened.fileManager().resolve("/foo").lastModified());
+        opened.close();
+    }
+
+    public void testSizeMissingFromAnOldNodeIsCountedOnceAndKept() throws Exception {
+        final ProtoVFS created = new ProtoVFSFactory().create(TARGET, true, CFG);
+        fill(created.fileManager().touch(created.getRoot(), "foo"), 70000);
+        final VFSModel.Node node = ((ProtoVFile) created.fileManager().resolve("/foo")).getProtoNode();
+        created.close();
+
+        //as nodes were written before sizes were kept
+        final RandomAccessFileDataStorage storage = new RandomAccessFileDataStorage(new RandomAccessFile(TARGET, "rw"));
+        final BitSet inUse = new BitSet();
+        inUse.set(node.getNo());
+        final BlockDevice device = new BlockDevice(CFG.getBlockSize(), storage, storage, new SimpleAllocator(inUse));
+        final DataOutput writer = device.openWriter(node.getNo());
+        MetaCodec.PROTOBUF.writeNode(node.toBuilder().clearSize().build(), writer.asStream());
+        writer.close();
+        device.close();
+
+        final ProtoVFS opened = new ProtoVFSFactory().open(TARGET, CFG);
+        assertEquals(0, ((ProtoVFile) opened.fileManager().resolve("/foo")).getProtoNode().getSize());
+        assertEquals(70000, opened.fileManager().resolve("/foo").length());
+        assertEquals(70000, ((ProtoVFile) opened.fileManager().resolve("/foo")).getProtoNode().getSize());
+        assertEquals(node.getTimestamp(), opened.fileManager().resolve("/foo").lastModified());
+        opened.close();
+
+        final ProtoVFS reopened = new ProtoVFSFactory().open(TARGET, CFG);
+        assertEquals(70000, ((ProtoVFile) reopened.fileManager().resolve("/foo")).getProtoNode().getSize());
+        reopened.close();
+    }
+
+    private static byte[] fill(final VFile file, final int size) throws Exception {
+        final byte[] out = new byte[size];
+        for (int i = 0; i < size; i++) {
+            out[i] = (byte) (i * 31);
+        }
+        final OutputStream os = file.openFileOutput();
+        try {
+            os.write(out);
+        } finally {
+            os.close();
+        }
+        return out;
+    }
+
+    private static void assertContent(final byte[] expected, final VFile file) throws Exception {
+        assertNotNull(file);
+        assertTrue(Arrays.equals(expected, IOUtils.readInputStreamToBytes(file.openFileInput())));
+    }
+}
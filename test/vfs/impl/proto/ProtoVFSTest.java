@@ -16,11 +16,17 @@ import vfs.exception.VFileNotFoundException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
 
 public class ProtoVFSTest extends TestCase {
     private static final Logger log = LoggerFactory.getLogger(ProtoVFSTest.class);
@@ -279,6 +285,344 @@ public class ProtoVFSTest extends TestCase {
 
     }
 
+    @Test
+    public void testHandleToARecreatedFileDoesNotReachTheNewOne() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/tmp/foo");
+        final ProtoVFile old = (ProtoVFile) vfs.fileManager().touch(dir, "boo");
+        assertTrue(vfs.fileManager().rm(old));
+        final ProtoVFile recreated = (ProtoVFile) vfs.fileManager().touch(dir, "boo");
+        //same path, and likely the same node block too, depending on the allocator
+        assertFalse(old.getGeneration() == recreated.getGeneration());
+
+        try {
+            old.openFileOutput();
+            fail();
+        } catch (VFileNotFoundException e) {
+            //ok
+        }
+        try {
+            vfs.fileManager().rm(old);
+            fail();
+        } catch (VFileNotFoundException e) {
+            //ok
+        }
+        final PrintWriter writer = new PrintWriter(recreated.openFileOutput());
+        writer.print("new");
+        writer.close();
+        //a handle from a listing knows the generation from the dir entry
+        final VFile listed = dir.list().iterator().next();
+        assertEquals(recreated.getGeneration(), ((ProtoVFile) listed).getGeneration());
+        assertEquals("new", doReadLine(listed));
+    }
+
+    @Test
+    public void testNodesAreParsedOnceAndDroppedWithTheirFile() throws Exception {
+        final ProtoVFS fs = (ProtoVFS) vfs;
+        final VFile dir = vfs.fileManager().mkDirs("/hot");
+        final VFile file = vfs.fileManager().touch(dir, "file");
+        final NodeCache nodes = fs.getNodeCache();
+        for (int i = 0; i < 10; i++) {
+            //listed files read their nodes on demand, and get them from the cache
+            for (final VFile child : dir.list()) {
+                assertEquals("file", ((ProtoVFile) child).getProtoNode().getName());
+            }
+            assertTrue(fs.getRoot().isDir());
+            file.openFileInput().close();
+        }
+        assertEquals(0, nodes.getMisses());
+        assertTrue(nodes.getHits() > 0);
+
+        final int fileNo = ((ProtoVFile) file).getNo();
+        assertTrue(vfs.fileManager().rm(file));
+        assertNull(nodes.get(fileNo));
+    }
+
+    @Test
+    public void testRepeatedResolveIsServedFromDentryCache() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/a/b/c");
+        for (int i = 0; i < 50; i++) {
+            vfs.fileManager().touch(dir, "f" + i);
+        }
+        final DentryCache dentries = ((ProtoVFS) vfs).getDentryCache();
+        final VFile found = vfs.fileManager().resolve("/a/b/c/f42");
+        final long misses = dentries.getMisses();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(found, vfs.fileManager().resolve("/a/b/c/f42"));
+        }
+        assertEquals(misses, dentries.getMisses());
+        assertNull(dir.child("nope"));
+        assertNull(dir.child("nope"));
+        assertEquals(misses + 1, dentries.getMisses());
+    }
+
+    @Test
+    public void testDentryCacheFollowsTouchAndRm() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/tmp/foo");
+        assertNull(dir.child("bar"));
+        final VFile bar = vfs.fileManager().touch(dir, "bar");
+        assertEquals(bar, dir.child("bar"));
+        assertEquals(bar, vfs.fileManager().resolve("/tmp/foo/bar"));
+
+        assertTrue(vfs.fileManager().rm(bar));
+        assertNull(dir.child("bar"));
+        try {
+            vfs.fileManager().resolve("/tmp/foo/bar");
+            fail();
+        } catch (VFileNotFoundException e) {
+            //ok
+        }
+
+        assertTrue(vfs.fileManager().rm(dir));
+        final VFile again = vfs.fileManager().mkDir(vfs.fileManager().resolve("/tmp"), "foo");
+        assertTrue(again.isDir());
+        assertEquals(again, vfs.fileManager().resolve("/tmp/foo"));
+        assertFalse(again.list().iterator().hasNext());
+    }
+
+    @Test
+    public void testLargeDirIsHashedAndKeepsWorking() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/big");
+        final Set<VFile> expected = new HashSet<VFile>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(i % 10 == 0 ? vfs.fileManager().mkDir(dir, "d" + i) : vfs.fileManager().touch(dir, "f" + i));
+        }
+        final ProtoVFile hashed = (ProtoVFile) vfs.fileManager().resolve("/big");
+        assertTrue(new NodeFlags(hashed.getProtoNode().getFlags()).isHashed());
+        //a reference taken before the dir was hashed still works
+        assertEquals(expected, Cf.set(dir.list()));
+        assertNotNull(dir.child("f999"));
+        assertNull(dir.child("f1000"));
+
+        assertTrue(vfs.fileManager().rm(vfs.fileManager().resolve("/big/f1")));
+        assertTrue(vfs.fileManager().rm(vfs.fileManager().resolve("/big/d10")));
+        assertNull(dir.child("f1"));
+        assertEquals(998, Cf.list(dir.list()).size());
+
+        for (final VFile child : dir.list()) {
+            assertTrue(vfs.fileManager().rm(child));
+        }
+        assertTrue(vfs.fileManager().rm(dir));
+        assertFalse(vfs.getRoot().list().iterator().hasNext());
+    }
+
+    @Test
+    public void testParentIsReadFromTheNodeOfTheChild() throws Exception {
+        final ProtoVFile down = (ProtoVFile) vfs.fileManager().mkDirs("/up/down");
+        vfs.fileManager().touch(down, "file");
+        final ProtoVFile listed = (ProtoVFile) down.list().iterator().next();
+
+        final DentryCache dentries = ((ProtoVFS) vfs).getDentryCache();
+        final long misses = dentries.getMisses();
+        final ProtoVFile parent = (ProtoVFile) listed.getParent();
+        assertEquals(down, parent);
+        assertEquals(down.getNo(), parent.getNo());
+        assertEquals("/up", parent.getParent().getAbsolutePath());
+        assertEquals(vfs.getRoot(), parent.getParent().getParent());
+        assertEquals(misses, dentries.getMisses());
+
+        final VFile file = vfs.fileManager().touch(vfs.fileManager().mkDirs("/gone"), "file");
+        assertTrue(vfs.fileManager().rm(file));
+        assertTrue(vfs.fileManager().rm(vfs.fileManager().resolve("/gone")));
+        try {
+            file.getParent();
+            fail();
+        } catch (VFileNotFoundException e) {
+            //ok
+        }
+
+        //the block of the removed parent may well hold a dir of the same name elsewhere by now
+        final VFile other = vfs.fileManager().mkDirs("/other");
+        final VFile stale = vfs.fileManager().touch(vfs.fileManager().mkDirs("/gone/x"), "file");
+        assertTrue(vfs.fileManager().rm(stale));
+        assertTrue(vfs.fileManager().rm(vfs.fileManager().resolve("/gone/x")));
+        vfs.fileManager().mkDir(other, "x");
+        try {
+            stale.getParent();
+            fail();
+        } catch (VFileNotFoundException e) {
+            //ok
+        }
+    }
+
+    @Test
+    public void testRemovedEntriesMakeRoomForNewOnes() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/churn");
+        final Set<VFile> expected = new HashSet<VFile>();
+        for (int i = 0; i < 40; i++) {
+            expected.add(vfs.fileManager().touch(dir, "f" + i));
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 40; i += 2) {
+                final VFile gone = dir.child("f" + i);
+                assertTrue(vfs.fileManager().rm(gone));
+                expected.remove(gone);
+                assertNull(dir.child("f" + i));
+            }
+            assertEquals(expected, Cf.set(dir.list()));
+            for (int i = 0; i < 40; i += 2) {
+                expected.add(vfs.fileManager().touch(dir, "f" + i));
+            }
+            assertEquals(expected, Cf.set(dir.list()));
+        }
+        //freed records were taken again, so the dir did not grow into a hashed one
+        final ProtoVFile churned = (ProtoVFile) vfs.fileManager().resolve("/churn");
+        assertFalse(new NodeFlags(churned.getProtoNode().getFlags()).isHashed());
+    }
+
+    @Test
+    public void testListedFilesKnowTheirTypeAndReadTheirNodeOnDemand() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/listed");
+        final VFile sub = vfs.fileManager().mkDir(dir, "sub");
+        final VFile file = vfs.fileManager().touch(dir, "file");
+        final PrintWriter writer = new PrintWriter(file.openFileOutput());
+        writer.print("content");
+        writer.close();
+
+        for (final VFile child : dir.list()) {
+            final ProtoVFile listed = (ProtoVFile) child;
+            assertEquals("sub".equals(listed.getName()), listed.isDir());
+            assertEquals(listed.getNo(), listed.getProtoNode().getNo());
+            assertEquals(listed.getName(), listed.getProtoNode().getName());
+        }
+        assertEquals(Cf.set(sub, file), Cf.set(dir.list()));
+        final VFile listedFile = dir.child("file");
+        assertEquals("content", new Scanner(listedFile.openFileInput()).next());
+    }
+
+    @Test
+    public void testListingIsLazyAndCanBeIteratedAgain() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/lazy");
+        final Iterable<VFile> children = dir.list();
+        final VFile foo = vfs.fileManager().touch(dir, "foo");
+        //nothing was read before iterating, so foo is there
+        assertEquals(Cf.list(foo), Cf.list(children));
+        final VFile bar = vfs.fileManager().touch(dir, "bar");
+        assertEquals(Cf.list(foo, bar), Cf.list(children));
+    }
+
+    @Test
+    public void testPagedListingOfSmallAndHashedDirs() throws Exception {
+        for (final int size : new int[]{0, 5, 40, 1500}) {
+            final VFile dir = vfs.fileManager().mkDirs("/paged" + size);
+            final Set<VFile> expected = new HashSet<VFile>();
+            for (int i = 0; i < size; i++) {
+                expected.add(vfs.fileManager().touch(dir, "f" + i));
+            }
+            final List<VFile> paged = Cf.newArrayList();
+            String startAfter = null;
+            List<VFile> page;
+            do {
+                page = dir.list(startAfter, 7);
+                assertTrue(page.size() <= 7);
+                paged.addAll(page);
+                startAfter = page.isEmpty() ? null : page.get(page.size() - 1).getName();
+            } while (!page.isEmpty());
+            assertEquals(size, paged.size());
+            assertEquals(expected, Cf.set(paged));
+        }
+    }
+
+    @Test
+    public void testPagesOfNoChildrenAreEmptyAndNegativeLimitsRejected() throws Exception {
+        for (final int size : new int[]{0, 5, 1500}) {
+            final VFile dir = vfs.fileManager().mkDirs("/limits" + size);
+            for (int i = 0; i < size; i++) {
+                vfs.fileManager().touch(dir, "f" + i);
+            }
+            assertTrue(dir.list(null, 0).isEmpty());
+            assertTrue(dir.list("f1", 0).isEmpty());
+            try {
+                dir.list(null, -1);
+                fail();
+            } catch (IllegalArgumentException e) {
+                //ok
+            }
+        }
+    }
+
+    @Test
+    public void testNamesAreUniqueWithinADir() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/unique");
+        final VFile x = vfs.fileManager().touch(dir, "x");
+        try {
+            vfs.fileManager().touch(dir, "x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //ok
+        }
+        try {
+            vfs.fileManager().mkDir(dir, "x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //ok
+        }
+        assertEquals(Cf.list(x), Cf.list(dir.list()));
+        assertEquals(Cf.list(x), dir.list(null, 10));
+
+        assertTrue(vfs.fileManager().rm(x));
+        assertTrue(vfs.fileManager().mkDir(dir, "x").isDir());
+    }
+
+    @Test
+    public void testFileHasNoChildrenWhateverItHolds() throws Exception {
+        final VFile dir = vfs.fileManager().mkDirs("/g");
+        final ProtoVFile secret = (ProtoVFile) vfs.fileManager().touch(dir, "secret");
+        final VFile file = vfs.fileManager().touch(dir, "file");
+        //bytes that read as an entry named x for the secret
+        final OutputStream out = file.openFileOutput();
+        MetaCodec.PROTOBUF.writeDelimited(
+                VFSModel.DirEntry.newBuilder().setInode(secret.getNo()).setName("x").setGeneration(secret.getGeneration()).build(),
+                out
+        );
+        out.close();
+        try {
+            file.child("x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //ok
+        }
+        try {
+            vfs.fileManager().resolve("/g/file/x");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //ok
+        }
+    }
+
+    @Test
+    public void testSizeAndTimeOfTheLastWriteAreKeptInTheNode() throws Exception {
+        final VFile foo = vfs.fileManager().touch(vfs.getRoot(), "foo");
+        assertEquals(0, foo.length());
+        final long created = foo.lastModified();
+        assertTrue(created > 0);
+
+        final byte[] content = new byte[5000];
+        new Random(7).nextBytes(content);
+        final OutputStream os = foo.openFileOutput();
+        os.write(content, 0, 1000);
+        os.write(content[1000]);
+        os.write(content, 1001, 3999);
+        assertEquals(0, foo.length());
+        os.close();
+        os.close();
+
+        assertEquals(5000, foo.length());
+        assertEquals(5000, vfs.fileManager().resolve("/foo").length());
+        assertTrue(foo.lastModified() >= created);
+        final InputStream is = foo.openFileInput();
+        assertEquals(5000, is.available());
+        assertEquals(10, is.skip(10));
+        assertEquals(4990, is.available());
+        is.close();
+        assertTrue(Arrays.equals(content, IOUtils.readInputStreamToBytes(foo.openFileInput())));
+
+        final OutputStream shorter = foo.openFileOutput();
+        shorter.write(content, 0, 10);
+        shorter.close();
+        assertEquals(10, foo.length());
+        assertEquals(0, vfs.getRoot().length());
+    }
+
     @Test
     public void testCantCreateFilesWithSpecialNames() throws Exception {
         testFailCreationAndTouchOnName(".");
@@ -309,4 +653,23 @@ public class ProtoVFSTest extends TestCase {
         }
     }
 
+    @Test
+    public void testRewritingFilesReusesTheBlocksTheyFreed() throws Exception {
+        //room for 400 blocks, a few times what is ever in use at once
+        final ProtoVFS small = new ProtoVFSFactory().create(ByteBuffer.allocate(400 * 1024), new VFileSystemConfig(1024, false, false, '/'));
+        final Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            final String name = "f" + (round % 4);
+            final VFile old = small.getRoot().child(name);
+            if (old != null) {
+                assertTrue(small.fileManager().rm(old));
+            }
+            final byte[] content = new byte[10000 + random.nextInt(15000)];
+            random.nextBytes(content);
+            final OutputStream os = small.fileManager().touch(small.getRoot(), name).openFileOutput();
+            os.write(content);
+            os.close();
+            assertTrue(Arrays.equals(content, IOUtils.readInputStreamToBytes(small.getRoot().child(name).openFileInput())));
+        }
+    }
 }
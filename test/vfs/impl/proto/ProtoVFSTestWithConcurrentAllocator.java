@@ -0,0 +1,17 @@
+package vfs.impl.proto;
+
+import vfs.api.VFileSystemConfig;
+
+import java.io.File;
+
+public class ProtoVFSTestWithConcurrentAllocator extends ProtoVFSTest {
+
+    @Override
+    protected ProtoVFS initVFS() {
+        return new ProtoVFSFactory().create(
+                new File("/tmp/_test_concurrent.vfs"), true,
+                new VFileSystemConfig(1024, true, true, '/').withAllocator(VFileSystemConfig.Allocator.CONCURRENT)
+        );
+    }
+
+}
@@ -0,0 +1,17 @@
+package vfs.impl.proto;
+
+import vfs.api.VFileSystemConfig;
+
+import java.io.File;
+
+public class ProtoVFSTestWithFixedMetadata extends ProtoVFSTest {
+
+    @Override
+    protected ProtoVFS initVFS() {
+        return new ProtoVFSFactory().create(
+                new File("/tmp/_test_fixed_meta.vfs"), true,
+                new VFileSystemConfig(1024, true, true, '/').withMetadata(VFileSystemConfig.Metadata.FIXED)
+        );
+    }
+
+}
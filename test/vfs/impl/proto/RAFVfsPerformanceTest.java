@@ -8,7 +8,12 @@ import vfs.api.VFile;
 import vfs.api.VFileSystemConfig;
 
 import java.io.File;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
 
 public class RAFVfsPerformanceTest extends TestCase {
 
@@ -79,4 +84,90 @@ public class RAFVfsPerformanceTest extends TestCase {
         log.info("done in " + (System.currentTimeMillis() - startTs));
     }
 
+    @Test
+    public void testFragmentationUnderChurn() throws Exception {
+        final Map<VFileSystemConfig.Allocator, Integer> extentsOf = new EnumMap<VFileSystemConfig.Allocator, Integer>(VFileSystemConfig.Allocator.class);
+        for (final VFileSystemConfig.Allocator allocator : VFileSystemConfig.Allocator.values()) {
+            final ProtoVFS vfs = new ProtoVFSFactory().create(new File("/tmp/_perf_test_churn.vfs"), true,
+                    new VFileSystemConfig(1024, true, true, '/').withAllocator(allocator));
+            final long startTs = System.currentTimeMillis();
+            final Random rnd = new Random(42);
+            final int files = 16;
+            final byte[] oneK = new byte[1024];
+            final VFile[] live = new VFile[files];
+            for (int round = 0; round < 32; round++) {
+                for (int f = 0; f < files; f++) {
+                    if (live[f] != null) {
+                        vfs.fileManager().rm(live[f]);
+                    }
+                    final VFile file = live[f] = vfs.fileManager().touch(vfs.getRoot(), "f" + f);
+                    final OutputStream output = file.openFileOutput();
+                    try {
+                        for (int k = rnd.nextInt(256); k >= 0; k--) {
+                            output.write(oneK);
+                        }
+                    } finally {
+                        output.close();
+                    }
+                }
+            }
+            int extents = 0;
+            for (final VFile file : live) {
+                extents += vfs.countExtents((ProtoVFile) file);
+            }
+            log.info(allocator + ": " + ((double) extents / files) + " extents per file, done in " + (System.currentTimeMillis() - startTs));
+            vfs.close();
+            extentsOf.put(allocator, extents);
+        }
+        assertTrue(extentsOf.toString(), extentsOf.get(VFileSystemConfig.Allocator.EXTENT) <= extentsOf.get(VFileSystemConfig.Allocator.SIMPLE));
+    }
+
+    @Test
+    public void testSequentialReadAllocation() throws Exception {
+        final int megs = 16;
+        final ProtoVFS vfs = new ProtoVFSFactory().create(new File("/tmp/_perf_test_read.vfs"), true, new VFileSystemConfig(1024, true, true, '/'));
+
+        final VFile file = vfs.fileManager().touch(vfs.getRoot(), "boo");
+        assertNotNull(file);
+        final OutputStream output = file.openFileOutput();
+        try {
+            final byte[] oneK = new byte[1024];
+            for (int i = 0; i < megs * 1024; i++) {
+                output.write(oneK);
+            }
+        } finally {
+            output.close();
+        }
+
+        final byte[] buf = new byte[65536];
+        readFully(file, buf); //warm up
+
+        final long startTs = System.currentTimeMillis();
+        final long allocatedBefore = allocatedByThisThread();
+        final long read = readFully(file, buf);
+        final long allocated = allocatedByThisThread() - allocatedBefore;
+        assertEquals(megs * 1024L * 1024L, read);
+
+        log.info("read " + megs + " MB in " + (System.currentTimeMillis() - startTs) + " ms, allocated " + (allocated / megs) + " bytes per MB");
+        vfs.close();
+    }
+
+    private static long readFully(final VFile file, final byte[] buf) throws Exception {
+        final InputStream input = file.openFileInput();
+        long total = 0;
+        try {
+            int n;
+            while ((n = input.read(buf)) > 0) {
+                total += n;
+            }
+        } finally {
+            input.close();
+        }
+        return total;
+    }
+
+    private static long allocatedByThisThread() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
 }